@@ -0,0 +1,12 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.app.admin;
+
+public class DevicePolicyManager {
+    public static final int PASSWORD_QUALITY_UNSPECIFIED = 0;
+    public static final int PASSWORD_QUALITY_NUMERIC = 0x20000;
+    public static final int PASSWORD_QUALITY_ALPHABETIC = 0x40000;
+    public static final int PASSWORD_QUALITY_ALPHANUMERIC = 0x50000;
+}
@@ -0,0 +1,29 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.content;
+
+import java.io.File;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract File getFilesDir();
+
+    public abstract File getCacheDir();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public Resources getResources() {
+        return new Resources();
+    }
+
+    public TypedArray obtainStyledAttributes(AttributeSet set, int[] attrs) {
+        return new TypedArray();
+    }
+}
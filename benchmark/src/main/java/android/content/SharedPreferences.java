@@ -0,0 +1,35 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.content;
+
+public interface SharedPreferences {
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    String getString(String key, String defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    boolean contains(String key);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putInt(String key, int value);
+
+        Editor putLong(String key, long value);
+
+        Editor putString(String key, String value);
+
+        Editor putBoolean(String key, boolean value);
+
+        Editor remove(String key);
+
+        boolean commit();
+
+        void apply();
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.content.res;
+
+public class Resources {
+    private final android.util.DisplayMetrics mMetrics = new android.util.DisplayMetrics();
+
+    public android.util.DisplayMetrics getDisplayMetrics() {
+        return mMetrics;
+    }
+
+    public String getString(int id) {
+        return "";
+    }
+
+    public String getString(int id, Object... formatArgs) {
+        return "";
+    }
+}
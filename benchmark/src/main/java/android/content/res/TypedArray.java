@@ -0,0 +1,14 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.content.res;
+
+public class TypedArray {
+    public String getString(int index) {
+        return null;
+    }
+
+    public void recycle() {
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public final class Bitmap {
+    public enum Config {
+        ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+
+    private Bitmap(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height);
+    }
+
+    public static Bitmap createScaledBitmap(Bitmap src, int dstWidth, int dstHeight,
+            boolean filter) {
+        return new Bitmap(dstWidth, dstHeight);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getRowBytes() {
+        return mWidth * 4;
+    }
+
+    public void eraseColor(int c) {
+    }
+
+    public boolean isRecycled() {
+        return false;
+    }
+
+    public void recycle() {
+    }
+}
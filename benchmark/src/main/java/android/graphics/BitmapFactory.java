@@ -0,0 +1,33 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+import android.content.res.Resources;
+
+public class BitmapFactory {
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int outWidth;
+        public int outHeight;
+        public int inSampleSize;
+    }
+
+    public static Bitmap decodeResource(Resources res, int id) {
+        return Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+    }
+
+    public static Bitmap decodeResource(Resources res, int id, Options opts) {
+        if (opts != null && opts.inJustDecodeBounds) {
+            opts.outWidth = 96;
+            opts.outHeight = 96;
+            return null;
+        }
+        if (opts != null && opts.inSampleSize > 1) {
+            return Bitmap.createBitmap(96 / opts.inSampleSize, 96 / opts.inSampleSize,
+                    Bitmap.Config.ARGB_8888);
+        }
+        return decodeResource(res, id);
+    }
+}
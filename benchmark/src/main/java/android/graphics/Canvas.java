@@ -0,0 +1,25 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public class Canvas {
+    public Canvas() {
+    }
+
+    public Canvas(Bitmap bitmap) {
+    }
+
+    public void drawPath(Path path, Paint paint) {
+    }
+
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+    }
+
+    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+    }
+
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+    }
+}
@@ -0,0 +1,11 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public class Color {
+    public static final int TRANSPARENT = 0;
+    public static final int WHITE = 0xffffffff;
+    public static final int RED = 0xffff0000;
+}
@@ -0,0 +1,18 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public class Matrix {
+    public void setTranslate(float dx, float dy) {
+    }
+
+    public boolean preTranslate(float dx, float dy) {
+        return true;
+    }
+
+    public boolean preScale(float sx, float sy) {
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public class Paint {
+    public static final int ANTI_ALIAS_FLAG = 1;
+    public static final int FILTER_BITMAP_FLAG = 2;
+
+    public enum Style {
+        FILL, STROKE
+    }
+
+    public enum Join {
+        MITER, ROUND, BEVEL
+    }
+
+    public enum Cap {
+        BUTT, ROUND, SQUARE
+    }
+
+    private int mFlags;
+
+    public Paint() {
+    }
+
+    public Paint(int flags) {
+        mFlags = flags;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public void setFilterBitmap(boolean filter) {
+        mFlags = filter ? mFlags | FILTER_BITMAP_FLAG : mFlags & ~FILTER_BITMAP_FLAG;
+    }
+
+    public void setAntiAlias(boolean aa) {
+    }
+
+    public void setDither(boolean dither) {
+    }
+
+    public void setColor(int color) {
+    }
+
+    public void setAlpha(int a) {
+    }
+
+    public void setStyle(Style style) {
+    }
+
+    public void setStrokeJoin(Join join) {
+    }
+
+    public void setStrokeCap(Cap cap) {
+    }
+
+    public void setStrokeWidth(float width) {
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public class Path {
+    public void reset() {
+    }
+
+    public void rewind() {
+    }
+
+    public boolean isEmpty() {
+        return true;
+    }
+
+    public void moveTo(float x, float y) {
+    }
+
+    public void lineTo(float x, float y) {
+    }
+}
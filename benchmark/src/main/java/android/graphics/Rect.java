@@ -0,0 +1,55 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.graphics;
+
+public final class Rect {
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public Rect() {
+    }
+
+    public Rect(int left, int top, int right, int bottom) {
+        set(left, top, right, bottom);
+    }
+
+    public boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public void setEmpty() {
+        left = top = right = bottom = 0;
+    }
+
+    public void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void set(Rect src) {
+        set(src.left, src.top, src.right, src.bottom);
+    }
+
+    public void union(int left, int top, int right, int bottom) {
+        if (left < right && top < bottom) {
+            if (isEmpty()) {
+                set(left, top, right, bottom);
+            } else {
+                this.left = Math.min(this.left, left);
+                this.top = Math.min(this.top, top);
+                this.right = Math.max(this.right, right);
+                this.bottom = Math.max(this.bottom, bottom);
+            }
+        }
+    }
+
+    public void union(Rect r) {
+        union(r.left, r.top, r.right, r.bottom);
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 19;
+    }
+
+    public static class VERSION_CODES {
+        public static final int HONEYCOMB = 11;
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int JELLY_BEAN = 16;
+        public static final int KITKAT = 19;
+    }
+}
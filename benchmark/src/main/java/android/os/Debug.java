@@ -0,0 +1,13 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public final class Debug {
+    public static void startMethodTracing(String traceName) {
+    }
+
+    public static void stopMethodTracing() {
+    }
+}
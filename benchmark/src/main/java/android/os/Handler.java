@@ -0,0 +1,25 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public class Handler {
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return false;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public final class Looper {
+    private static final Looper sMainLooper = new Looper();
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public final class Parcel {
+    public String readString() {
+        return null;
+    }
+
+    public byte readByte() {
+        return 0;
+    }
+
+    public Object readValue(ClassLoader loader) {
+        return null;
+    }
+
+    public void writeString(String val) {
+    }
+
+    public void writeByte(byte val) {
+    }
+
+    public void writeValue(Object v) {
+    }
+}
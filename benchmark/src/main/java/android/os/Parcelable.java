@@ -0,0 +1,17 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public interface Parcelable {
+    void writeToParcel(Parcel dest, int flags);
+
+    int describeContents();
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}
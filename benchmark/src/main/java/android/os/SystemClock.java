@@ -0,0 +1,15 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.os;
+
+public final class SystemClock {
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+}
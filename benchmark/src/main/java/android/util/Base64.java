@@ -0,0 +1,18 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.util;
+
+public class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    public static String encodeToString(byte[] input, int flags) {
+        return java.util.Base64.getEncoder().encodeToString(input);
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getDecoder().decode(str);
+    }
+}
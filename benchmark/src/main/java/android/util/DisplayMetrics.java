@@ -0,0 +1,10 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.util;
+
+public class DisplayMetrics {
+    public float density = 2f;
+    public int densityDpi = 320;
+}
@@ -0,0 +1,11 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.view;
+
+public class HapticFeedbackConstants {
+    public static final int VIRTUAL_KEY = 1;
+    public static final int FLAG_IGNORE_VIEW_SETTING = 0x0001;
+    public static final int FLAG_IGNORE_GLOBAL_SETTING = 0x0002;
+}
@@ -0,0 +1,48 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.view;
+
+public final class MotionEvent {
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+
+    public final int getAction() {
+        return 0;
+    }
+
+    public final int getActionMasked() {
+        return 0;
+    }
+
+    public final float getX() {
+        return 0;
+    }
+
+    public final float getY() {
+        return 0;
+    }
+
+    public final long getEventTime() {
+        return 0;
+    }
+
+    public final int getHistorySize() {
+        return 0;
+    }
+
+    public final float getHistoricalX(int pos) {
+        return 0;
+    }
+
+    public final float getHistoricalY(int pos) {
+        return 0;
+    }
+
+    public final long getHistoricalEventTime(int pos) {
+        return 0;
+    }
+}
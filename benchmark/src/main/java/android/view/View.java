@@ -0,0 +1,214 @@
+/*
+ * Minimal stand-in for the Android framework class of the same name, just
+ * enough to compile and run the benchmarks on a plain JVM.
+ */
+package android.view;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.AttributeSet;
+
+public class View {
+    public static final int VISIBLE = 0;
+    public static final int INVISIBLE = 4;
+    public static final int GONE = 8;
+
+    private final Context mContext;
+
+    public View(Context context) {
+        this(context, null);
+    }
+
+    public View(Context context, AttributeSet attrs) {
+        mContext = context;
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    public Resources getResources() {
+        return mContext.getResources();
+    }
+
+    public void invalidate() {
+    }
+
+    public void invalidate(int l, int t, int r, int b) {
+    }
+
+    public void invalidate(Rect dirty) {
+    }
+
+    public void postInvalidateOnAnimation() {
+    }
+
+    public boolean post(Runnable action) {
+        return true;
+    }
+
+    public boolean postDelayed(Runnable action, long delayMillis) {
+        return true;
+    }
+
+    public void postOnAnimation(Runnable action) {
+    }
+
+    public void postOnAnimationDelayed(Runnable action, long delayMillis) {
+    }
+
+    public boolean removeCallbacks(Runnable action) {
+        return true;
+    }
+
+    public final int getWidth() {
+        return 0;
+    }
+
+    public final int getHeight() {
+        return 0;
+    }
+
+    public final int getLeft() {
+        return 0;
+    }
+
+    public final int getTop() {
+        return 0;
+    }
+
+    public final int getRight() {
+        return 0;
+    }
+
+    public final int getBottom() {
+        return 0;
+    }
+
+    public int getPaddingLeft() {
+        return 0;
+    }
+
+    public int getPaddingTop() {
+        return 0;
+    }
+
+    public int getPaddingRight() {
+        return 0;
+    }
+
+    public int getPaddingBottom() {
+        return 0;
+    }
+
+    public void setPadding(int left, int top, int right, int bottom) {
+    }
+
+    public void setClickable(boolean clickable) {
+    }
+
+    public void setEnabled(boolean enabled) {
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public boolean isShown() {
+        return true;
+    }
+
+    public int getWindowVisibility() {
+        return VISIBLE;
+    }
+
+    public boolean performHapticFeedback(int feedbackConstant, int flags) {
+        return true;
+    }
+
+    public void announceForAccessibility(CharSequence text) {
+    }
+
+    public boolean onTouchEvent(MotionEvent event) {
+        return false;
+    }
+
+    protected void onDraw(Canvas canvas) {
+    }
+
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    }
+
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+    }
+
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    }
+
+    protected final void setMeasuredDimension(int measuredWidth, int measuredHeight) {
+    }
+
+    protected int getSuggestedMinimumWidth() {
+        return 0;
+    }
+
+    protected int getSuggestedMinimumHeight() {
+        return 0;
+    }
+
+    protected void onAttachedToWindow() {
+    }
+
+    protected void onDetachedFromWindow() {
+    }
+
+    protected void onVisibilityChanged(View changedView, int visibility) {
+    }
+
+    protected void onWindowVisibilityChanged(int visibility) {
+    }
+
+    protected Parcelable onSaveInstanceState() {
+        return null;
+    }
+
+    protected void onRestoreInstanceState(Parcelable state) {
+    }
+
+    public static class BaseSavedState implements Parcelable {
+        public BaseSavedState(Parcelable superState) {
+        }
+
+        public BaseSavedState(Parcel source) {
+        }
+
+        public final Parcelable getSuperState() {
+            return null;
+        }
+
+        public void writeToParcel(Parcel dest, int flags) {
+        }
+
+        public int describeContents() {
+            return 0;
+        }
+    }
+
+    public static class MeasureSpec {
+        public static final int UNSPECIFIED = 0;
+        public static final int EXACTLY = 1 << 30;
+        public static final int AT_MOST = 2 << 30;
+
+        public static int getMode(int measureSpec) {
+            return measureSpec & (3 << 30);
+        }
+
+        public static int getSize(int measureSpec) {
+            return measureSpec & ~(3 << 30);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.android.lockpattern.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * A {@link Context} for running the lock pattern code off-device: files go to
+ * a fresh temporary directory and preferences are kept in memory.
+ */
+public final class BenchmarkContext extends Context {
+	private final File mDirectory;
+	private final Map<String, MemoryPreferences> mPreferences = new HashMap<String, MemoryPreferences>();
+
+	public BenchmarkContext() throws IOException {
+		mDirectory = File.createTempFile("lockpattern", "");
+		if (!mDirectory.delete() || !mDirectory.mkdir()) {
+			throw new IOException("Unable to create " + mDirectory);
+		}
+	}
+
+	@Override
+	public File getFilesDir() {
+		return mDirectory;
+	}
+
+	@Override
+	public File getCacheDir() {
+		return mDirectory;
+	}
+
+	@Override
+	public synchronized SharedPreferences getSharedPreferences(String name,
+			int mode) {
+		MemoryPreferences preferences = mPreferences.get(name);
+		if (preferences == null) {
+			preferences = new MemoryPreferences();
+			mPreferences.put(name, preferences);
+		}
+		return preferences;
+	}
+
+	/**
+	 * Remove the files written through this context.
+	 */
+	public void delete() {
+		final File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDirectory.delete();
+	}
+
+	private static final class MemoryPreferences implements SharedPreferences {
+		private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+		@Override
+		public synchronized int getInt(String key, int defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof Integer ? (Integer) value : defValue;
+		}
+
+		@Override
+		public synchronized long getLong(String key, long defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof Long ? (Long) value : defValue;
+		}
+
+		@Override
+		public synchronized String getString(String key, String defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof String ? (String) value : defValue;
+		}
+
+		@Override
+		public synchronized boolean getBoolean(String key, boolean defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof Boolean ? (Boolean) value : defValue;
+		}
+
+		@Override
+		public synchronized boolean contains(String key) {
+			return mValues.containsKey(key);
+		}
+
+		@Override
+		public Editor edit() {
+			return new MemoryEditor();
+		}
+
+		private final class MemoryEditor implements Editor {
+			private final Map<String, Object> mChanges = new HashMap<String, Object>();
+
+			@Override
+			public Editor putInt(String key, int value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putLong(String key, long value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putString(String key, String value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor putBoolean(String key, boolean value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+			@Override
+			public Editor remove(String key) {
+				mChanges.put(key, null);
+				return this;
+			}
+
+			@Override
+			public boolean commit() {
+				synchronized (MemoryPreferences.this) {
+					for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+						if (change.getValue() == null) {
+							mValues.remove(change.getKey());
+						} else {
+							mValues.put(change.getKey(), change.getValue());
+						}
+					}
+				}
+				mChanges.clear();
+				return true;
+			}
+
+			@Override
+			public void apply() {
+				commit();
+			}
+		}
+	}
+}
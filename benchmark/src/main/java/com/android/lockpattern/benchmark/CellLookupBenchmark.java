@@ -0,0 +1,82 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.LockPatternUtils;
+import com.android.lockpattern.widget.LockPatternView;
+import com.android.lockpattern.widget.PatternCode;
+
+/**
+ * {@link LockPatternView.Cell#of} under contention: several views hit
+ * testing at once while background threads decode saved patterns, all going
+ * through the same flyweight table.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellLookupBenchmark {
+	private static final byte SIZE = (byte) PatternCode.GRID_SIZE;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int mIndex;
+		String mSaved;
+
+		@Setup
+		public void setUp() {
+			mSaved = LockPatternUtils.patternToString(Patterns
+					.random(PatternCode.MAX_LENGTH));
+		}
+
+		int next() {
+			mIndex = (mIndex + 1) % (SIZE * SIZE);
+			return mIndex;
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public LockPatternView.Cell uncontended(Cursor cursor) {
+		final int index = cursor.next();
+		return LockPatternView.Cell.of(index / SIZE, index % SIZE, SIZE);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public LockPatternView.Cell views(Cursor cursor) {
+		final int index = cursor.next();
+		return LockPatternView.Cell.of(index / SIZE, index % SIZE, SIZE);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public LockPatternView.Cell mixedView(Cursor cursor) {
+		final int index = cursor.next();
+		return LockPatternView.Cell.of(index / SIZE, index % SIZE, SIZE);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public List<LockPatternView.Cell> mixedDecoder(Cursor cursor) {
+		return LockPatternUtils.stringToPattern(cursor.mSaved);
+	}
+}
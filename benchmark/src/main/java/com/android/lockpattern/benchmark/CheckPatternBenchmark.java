@@ -0,0 +1,79 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.KeyDerivation;
+import com.android.lockpattern.widget.LockPatternUtils;
+import com.android.lockpattern.widget.LockPatternView;
+
+/**
+ * {@link LockPatternUtils#checkPattern} end to end, as the unlock screen
+ * calls it, for each key derivation function. PBKDF2 is calibrated to
+ * verifyMillis, so its numbers mostly confirm the calibration holds.
+ * <p>
+ * LockPatternUtils keeps its state in static fields, so every parameter
+ * combination needs a fork of its own.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckPatternBenchmark {
+	@Param({ "SHA1", "PBKDF2_HMAC_SHA256" })
+	public String kdf;
+
+	@Param({ "4", "9", "16" })
+	public int length;
+
+	@Param({ "5" })
+	public long verifyMillis;
+
+	private BenchmarkContext mContext;
+	private LockPatternUtils mUtils;
+	private List<LockPatternView.Cell> mPattern;
+	private List<LockPatternView.Cell> mWrongPattern;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		mContext = new BenchmarkContext();
+		mUtils = new LockPatternUtils(mContext);
+		mUtils.setKeyDerivation((KeyDerivation) KeyDerivation.class
+				.getField(kdf).get(null), verifyMillis);
+		mPattern = Patterns.random(length);
+		mWrongPattern = Patterns.other(mPattern);
+		mUtils.saveLockPattern(mPattern);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mUtils.clearLock();
+		mContext.delete();
+	}
+
+	@Benchmark
+	public boolean checkMatch() {
+		return mUtils.checkPattern(mPattern);
+	}
+
+	@Benchmark
+	public boolean checkMismatch() {
+		return mUtils.checkPattern(mWrongPattern);
+	}
+}
@@ -0,0 +1,62 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.Random;
+
+/**
+ * Synthetic gestures for the input benchmarks: samples along the segments
+ * between the centers of a random pattern's cells, with some jitter.
+ */
+final class Gestures {
+	/** the side of each cell's square */
+	static final float SQUARE = 100f;
+	/** the hit radius the view would use for SQUARE */
+	static final float HIT_RADIUS = SQUARE * 0.3f;
+
+	private Gestures() {
+	}
+
+	/**
+	 * @param random
+	 *            The source of the pattern and the jitter.
+	 * @param gridSize
+	 *            The number of rows and columns of the grid.
+	 * @param samplesPerCell
+	 *            How many samples lead from one cell to the next.
+	 * @return x, y pairs, the first on the center of the first cell.
+	 */
+	static float[] random(Random random, int gridSize, int samplesPerCell) {
+		final int count = gridSize * gridSize;
+		final int[] cells = new int[count];
+		for (int i = 0; i < count; i++) {
+			cells[i] = i;
+		}
+		final int length = 4 + random.nextInt(count - 3);
+		for (int i = 0; i < length; i++) {
+			final int j = i + random.nextInt(count - i);
+			final int cell = cells[j];
+			cells[j] = cells[i];
+			cells[i] = cell;
+		}
+		final float[] samples = new float[2 + (length - 1) * samplesPerCell * 2];
+		samples[0] = centerOf(cells[0] % gridSize);
+		samples[1] = centerOf(cells[0] / gridSize);
+		int n = 2;
+		for (int i = 1; i < length; i++) {
+			final float x0 = centerOf(cells[i - 1] % gridSize);
+			final float y0 = centerOf(cells[i - 1] / gridSize);
+			final float x1 = centerOf(cells[i] % gridSize);
+			final float y1 = centerOf(cells[i] / gridSize);
+			for (int s = 1; s <= samplesPerCell; s++) {
+				final float t = s / (float) samplesPerCell;
+				final float jitter = SQUARE * 0.1f;
+				samples[n++] = x0 + (x1 - x0) * t + (random.nextFloat() - 0.5f) * jitter;
+				samples[n++] = y0 + (y1 - y0) * t + (random.nextFloat() - 0.5f) * jitter;
+			}
+		}
+		return samples;
+	}
+
+	private static float centerOf(int rowOrColumn) {
+		return rowOrColumn * SQUARE + SQUARE / 2f;
+	}
+}
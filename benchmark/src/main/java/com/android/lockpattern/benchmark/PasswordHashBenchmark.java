@@ -0,0 +1,59 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.pattern.LockPasswordUtils;
+
+/**
+ * {@link LockPasswordUtils#passwordToHash}, which includes the hex encoding
+ * of both digests.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHashBenchmark {
+	@Param({ "4", "8", "16" })
+	public int length;
+
+	private BenchmarkContext mContext;
+	private LockPasswordUtils mUtils;
+	private String mPassword;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		mContext = new BenchmarkContext();
+		mUtils = new LockPasswordUtils(mContext);
+		final StringBuilder password = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			password.append((char) ('0' + i % 10));
+		}
+		mPassword = password.toString();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mContext.delete();
+	}
+
+	@Benchmark
+	public byte[] passwordToHash() {
+		return mUtils.passwordToHash(mPassword);
+	}
+}
@@ -0,0 +1,74 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.KeyDerivation;
+import com.android.lockpattern.widget.PatternCode;
+import com.android.lockpattern.widget.PatternHasher;
+
+/**
+ * The raw cost of hashing a pattern, without any file or preference access.
+ * PBKDF2 runs at a fixed cost so results are comparable across devices; the
+ * cost picked at runtime scales linearly from it.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PatternHashBenchmark {
+	@Param({ "4", "9", "16" })
+	public int length;
+
+	@Param({ "1000" })
+	public int cost;
+
+	private PatternCode mCode;
+	private byte[] mSalt;
+	private byte[] mSha1;
+	private byte[] mPbkdf2;
+	private final byte[] mOut = new byte[64];
+
+	@Setup
+	public void setUp() {
+		mCode = PatternCode.of(Patterns.random(length));
+		mSalt = new byte[KeyDerivation.SALT_LENGTH];
+		mSha1 = KeyDerivation.SHA1.derive(mCode, mSalt, 1);
+		mPbkdf2 = KeyDerivation.PBKDF2_HMAC_SHA256.derive(mCode, mSalt, cost);
+	}
+
+	@Benchmark
+	public byte[] sha1Hash() {
+		PatternHasher.hash(mCode, mOut, 0);
+		return mOut;
+	}
+
+	@Benchmark
+	public boolean sha1Verify() {
+		return KeyDerivation.SHA1.verify(mCode, mSalt, 1, mSha1);
+	}
+
+	@Benchmark
+	public byte[] pbkdf2Derive() {
+		return KeyDerivation.PBKDF2_HMAC_SHA256.derive(mCode, mSalt, cost);
+	}
+
+	@Benchmark
+	public boolean pbkdf2Verify() {
+		return KeyDerivation.PBKDF2_HMAC_SHA256.verify(mCode, mSalt, cost,
+				mPbkdf2);
+	}
+}
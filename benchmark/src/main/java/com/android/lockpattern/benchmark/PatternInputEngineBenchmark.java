@@ -0,0 +1,73 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.PatternInputEngine;
+
+/**
+ * Whole synthetic gestures through {@link PatternInputEngine}: a down on the
+ * first cell, samplesPerCell jittered moves towards each following cell and
+ * an up. Measures the gesture detection the view runs per touch event,
+ * without the drawing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PatternInputEngineBenchmark {
+	private static final long SEED = 0x4c6f636bL;
+	private static final int GESTURE_COUNT = 256;
+
+	@Param({ "3", "5", "9" })
+	public int gridSize;
+
+	@Param({ "2", "8" })
+	public int samplesPerCell;
+
+	private PatternInputEngine mEngine;
+	/** x, y pairs of each gesture, the first is the down */
+	private float[][] mGestures;
+	private int mNext;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		mEngine = new PatternInputEngine(gridSize);
+		mEngine.setGeometry(0f, 0f, Gestures.SQUARE, Gestures.SQUARE,
+				Gestures.HIT_RADIUS);
+		final Random random = new Random(SEED);
+		mGestures = new float[GESTURE_COUNT][];
+		for (int i = 0; i < GESTURE_COUNT; i++) {
+			mGestures[i] = Gestures.random(random, gridSize, samplesPerCell);
+		}
+	}
+
+	@Benchmark
+	public int gesture() {
+		final float[] samples = mGestures[mNext];
+		mNext = (mNext + 1) % GESTURE_COUNT;
+		final PatternInputEngine engine = mEngine;
+		long time = 0;
+		engine.down(samples[0], samples[1], time);
+		for (int i = 2; i < samples.length; i += 2) {
+			engine.move(samples[i], samples[i + 1], ++time);
+		}
+		engine.up(++time);
+		return engine.getLength();
+	}
+}
@@ -0,0 +1,76 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.LockPatternUtils;
+import com.android.lockpattern.widget.LockPatternView;
+import com.android.lockpattern.widget.PatternCode;
+
+/**
+ * Converting patterns between cell lists, {@link PatternCode}s and the string
+ * form saved across configuration changes.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PatternSerializationBenchmark {
+	@Param({ "4", "6", "9", "12", "16" })
+	public int length;
+
+	private List<LockPatternView.Cell> mPattern;
+	private PatternCode mCode;
+	private String mString;
+
+	@Setup
+	public void setUp() {
+		mPattern = Patterns.random(length);
+		mCode = PatternCode.of(mPattern);
+		mString = LockPatternUtils.patternToString(mPattern);
+	}
+
+	@Benchmark
+	public String patternToString() {
+		return LockPatternUtils.patternToString(mPattern);
+	}
+
+	@Benchmark
+	public String patternCodeToString() {
+		return LockPatternUtils.patternToString(mCode);
+	}
+
+	@Benchmark
+	public List<LockPatternView.Cell> stringToPattern() {
+		return LockPatternUtils.stringToPattern(mString);
+	}
+
+	@Benchmark
+	public PatternCode stringToPatternCode() {
+		return LockPatternUtils.stringToPatternCode(mString);
+	}
+
+	@Benchmark
+	public PatternCode encode() {
+		return PatternCode.of(mPattern);
+	}
+
+	@Benchmark
+	public boolean matches() {
+		return mCode.matches(mPattern);
+	}
+}
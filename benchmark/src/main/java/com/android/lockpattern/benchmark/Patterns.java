@@ -0,0 +1,62 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.android.lockpattern.widget.LockPatternView;
+import com.android.lockpattern.widget.PatternCode;
+
+/**
+ * Reproducible patterns for the benchmarks.
+ */
+final class Patterns {
+	private static final long SEED = 0x4c6f636bL;
+
+	private Patterns() {
+	}
+
+	/**
+	 * @return A pattern of length distinct cells on the default grid, the
+	 *         same for every run.
+	 */
+	static List<LockPatternView.Cell> random(int length) {
+		return random(length, SEED);
+	}
+
+	static List<LockPatternView.Cell> random(int length, long seed) {
+		final int size = PatternCode.GRID_SIZE;
+		if (length < 0 || length > size * size) {
+			throw new IllegalArgumentException("invalid length " + length);
+		}
+		final int[] indices = new int[size * size];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+		final Random random = new Random(seed);
+		final List<LockPatternView.Cell> pattern = new ArrayList<LockPatternView.Cell>(
+				length);
+		for (int i = 0; i < length; i++) {
+			final int j = i + random.nextInt(indices.length - i);
+			final int index = indices[j];
+			indices[j] = indices[i];
+			indices[i] = index;
+			pattern.add(LockPatternView.Cell.of(index / size, index % size,
+					(byte) size));
+		}
+		return pattern;
+	}
+
+	/**
+	 * @return A pattern of the same length as pattern that differs from it.
+	 */
+	static List<LockPatternView.Cell> other(List<LockPatternView.Cell> pattern) {
+		for (long seed = SEED + 1;; seed++) {
+			final List<LockPatternView.Cell> other = random(pattern.size(),
+					seed);
+			if (!PatternCode.of(other).equals(PatternCode.of(pattern))) {
+				return other;
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.android.lockpattern.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.CredentialRecord;
+import com.android.lockpattern.widget.KeyDerivation;
+import com.android.lockpattern.widget.PatternCode;
+import com.android.lockpattern.widget.ProfileCredentialStore;
+
+/**
+ * Saving and verifying patterns in a {@link ProfileCredentialStore} holding
+ * {@code profiles} patterns. Uses SHA-1 so the store, not the key
+ * derivation, is measured; a save includes syncing its slot to disk.
+ * <p>
+ * Setup first checks the store survives being reopened, and that a torn
+ * write to a slot falls back to the profile's previous pattern, so a
+ * durability regression fails the run rather than just changing the score.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileCredentialStoreBenchmark {
+	private static final String RECORD_FILE = "profiles.dat";
+	/** one copy of a record in a slot: generation, record, checksum */
+	private static final int COPY_LENGTH = 4 + CredentialRecord.RECORD_LENGTH + 4;
+	private static final int PATTERN_LENGTH = 6;
+
+	@Param({ "64", "4096" })
+	public int profiles;
+
+	private BenchmarkContext mContext;
+	private ProfileCredentialStore mStore;
+	private PatternCode[] mPatterns;
+	private int mNext;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		mContext = new BenchmarkContext();
+		mPatterns = new PatternCode[profiles];
+		for (int i = 0; i < profiles; i++) {
+			mPatterns[i] = PatternCode.of(Patterns.random(PATTERN_LENGTH, i));
+		}
+		checkTornSlot();
+		mStore = open();
+		for (int i = 0; i < profiles; i++) {
+			mStore.save(i, mPatterns[i]);
+		}
+		mStore.close();
+		mStore = open();
+		for (int i = 0; i < profiles; i++) {
+			check(mStore.verify(i, mPatterns[i]), "profile " + i
+					+ " lost on reopen");
+		}
+		check(!mStore.verify(0, mPatterns[1]), "wrong pattern matched");
+	}
+
+	/**
+	 * Tear the newest copy of a slot and make sure the previous pattern is
+	 * still there, that the next save lands in the torn copy, and that a
+	 * slot with both copies torn matches nothing.
+	 */
+	private void checkTornSlot() throws IOException {
+		final PatternCode first = mPatterns[0];
+		final PatternCode second = mPatterns[1];
+		final PatternCode third = PatternCode.of(Patterns.random(
+				PATTERN_LENGTH, -1));
+		ProfileCredentialStore store = open();
+		store.save(0, first);
+		store.save(0, second);
+		store.close();
+		// the second save went to copy B of slot 0
+		tear(COPY_LENGTH);
+
+		store = open();
+		check(store.verify(0, first), "torn slot lost the previous pattern");
+		check(!store.verify(0, second), "torn copy was used");
+		store.save(0, third);
+		store.close();
+
+		store = open();
+		check(store.verify(0, third), "save after a torn copy was lost");
+		store.close();
+
+		tear(0);
+		tear(COPY_LENGTH);
+		store = open();
+		check(!store.verify(0, third) && !store.contains(0),
+				"slot with both copies torn matched");
+		store.close();
+		mContext.delete();
+		mContext = new BenchmarkContext();
+	}
+
+	/**
+	 * Flip a byte in the middle of a copy of slot 0, as a crash part way
+	 * through writing it would leave it.
+	 */
+	private void tear(int copy) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(new File(
+				mContext.getFilesDir(), RECORD_FILE), "rw");
+		try {
+			final long position = copy + COPY_LENGTH / 2;
+			file.seek(position);
+			final int value = file.read();
+			file.seek(position);
+			file.write(~value);
+		} finally {
+			file.close();
+		}
+	}
+
+	private ProfileCredentialStore open() throws IOException {
+		return new ProfileCredentialStore(mContext.getFilesDir(),
+				KeyDerivation.SHA1, 1);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		mStore.close();
+		mContext.delete();
+	}
+
+	@Benchmark
+	public boolean verify() {
+		final int profile = mNext;
+		mNext = (mNext + 1) % profiles;
+		return mStore.verify(profile, mPatterns[profile]);
+	}
+
+	@Benchmark
+	public int save() throws IOException {
+		final int profile = mNext;
+		mNext = (mNext + 1) % profiles;
+		mStore.save(profile, mPatterns[profile]);
+		return profile;
+	}
+}
@@ -0,0 +1,112 @@
+package com.android.lockpattern.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.android.lockpattern.widget.PatternInputEngine;
+import com.android.lockpattern.widget.TouchTraceRecorder;
+import com.android.lockpattern.widget.TouchTraceReplayer;
+
+/**
+ * Recording touch traces and replaying them through
+ * {@link PatternInputEngine} as fast as possible. The trace holds synthetic
+ * gestures whose moves carry samplesPerEvent samples each, history included,
+ * the way a busy device batches them. Replay checks every gesture was
+ * detected, so a detection regression fails the run rather than just
+ * changing the score.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TouchTraceBenchmark {
+	private static final long SEED = 0x4c6f636bL;
+	private static final int GESTURE_COUNT = 64;
+	private static final int SAMPLES_PER_CELL = 8;
+	/** milliseconds between samples, about a 120Hz panel */
+	private static final long SAMPLE_INTERVAL = 8;
+
+	@Param({ "3", "9" })
+	public int gridSize;
+
+	@Param({ "1", "4" })
+	public int samplesPerEvent;
+
+	private float[][] mGestures;
+	private TouchTraceRecorder mRecorder;
+	private TouchTraceReplayer mReplayer;
+	private PatternInputEngine mEngine;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final Random random = new Random(SEED);
+		mGestures = new float[GESTURE_COUNT][];
+		for (int i = 0; i < GESTURE_COUNT; i++) {
+			mGestures[i] = Gestures.random(random, gridSize, SAMPLES_PER_CELL);
+		}
+		mRecorder = new TouchTraceRecorder(Integer.MAX_VALUE);
+		record();
+		mReplayer = new TouchTraceReplayer(mRecorder.toByteArray());
+		mEngine = new PatternInputEngine(gridSize);
+	}
+
+	/**
+	 * Record every gesture, as LockPatternView would.
+	 */
+	@Benchmark
+	public int record() {
+		final TouchTraceRecorder recorder = mRecorder;
+		recorder.reset();
+		recorder.geometry(gridSize, 0f, 0f, Gestures.SQUARE, Gestures.SQUARE,
+				Gestures.HIT_RADIUS);
+		long time = 0;
+		for (int g = 0; g < GESTURE_COUNT; g++) {
+			final float[] samples = mGestures[g];
+			recorder.beginEvent(TouchTraceRecorder.DOWN, 1);
+			recorder.sample(time, samples[0], samples[1]);
+			final int count = samples.length / 2;
+			for (int first = 1; first < count; first += samplesPerEvent) {
+				final int last = Math.min(first + samplesPerEvent, count);
+				recorder.beginEvent(TouchTraceRecorder.MOVE, last - first);
+				for (int i = first; i < last; i++) {
+					time += SAMPLE_INTERVAL;
+					recorder.sample(time, samples[i * 2], samples[i * 2 + 1]);
+				}
+			}
+			recorder.beginEvent(TouchTraceRecorder.UP, 1);
+			recorder.sample(time, samples[samples.length - 2],
+					samples[samples.length - 1]);
+			time += 100 * SAMPLE_INTERVAL;
+		}
+		return recorder.toByteArray().length;
+	}
+
+	/**
+	 * Replay the whole trace.
+	 */
+	@Benchmark
+	public int replay() throws InterruptedException {
+		mReplayer.replay(mEngine, 0f, null);
+		final int detected = mReplayer.getDetectedPatterns().size();
+		if (detected != GESTURE_COUNT) {
+			throw new IllegalStateException("detected " + detected + " of "
+					+ GESTURE_COUNT + " gestures");
+		}
+		return detected;
+	}
+}
@@ -0,0 +1,117 @@
+package com.android.lockpattern.widget;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A small file that is always replaced as a whole. New contents are written
+ * to a temporary file next to it, synced once and renamed over the old file,
+ * so readers see either the old or the new contents and never a torn write.
+ * <p>
+ * The directory is not synced after the rename: neither Java nor the
+ * Android APIs this project targets can open a directory to fsync it. A
+ * power loss right after a write may therefore bring back the previous
+ * contents, but never a mix of both, since the new file was synced before
+ * it was renamed.
+ * <p>
+ * Writes to one instance are serialized, so keep a single instance per
+ * file; two instances would share the temporary file.
+ */
+public final class AtomicKeyFile {
+	private static final byte[] EMPTY = new byte[0];
+
+	private final File mBaseName;
+	private final File mNewName;
+
+	public AtomicKeyFile(File baseName) {
+		mBaseName = baseName;
+		mNewName = new File(baseName.getPath() + ".new");
+	}
+
+	public File getBaseFile() {
+		return mBaseName;
+	}
+
+	/**
+	 * Replace the file contents.
+	 *
+	 * @param data
+	 *            The new contents.
+	 * @param offset
+	 *            Where the contents start in data.
+	 * @param length
+	 *            The length of the contents.
+	 * @throws IOException
+	 *             If the new contents couldn't be committed. The old
+	 *             contents are left in place.
+	 */
+	public synchronized void write(byte[] data, int offset, int length)
+			throws IOException {
+		final FileOutputStream out = new FileOutputStream(mNewName);
+		try {
+			out.write(data, offset, length);
+			// one durable sync per save, rather than one per write
+			out.getFD().sync();
+		} catch (IOException ioe) {
+			out.close();
+			mNewName.delete();
+			throw ioe;
+		}
+		out.close();
+		if (!mNewName.renameTo(mBaseName)) {
+			mNewName.delete();
+			throw new IOException("Unable to rename " + mNewName + " to "
+					+ mBaseName);
+		}
+	}
+
+	/**
+	 * Remove the file.
+	 *
+	 * @return Whether the file is gone.
+	 */
+	public synchronized boolean delete() {
+		mNewName.delete();
+		return mBaseName.delete() || !mBaseName.exists();
+	}
+
+	/**
+	 * Remove what is left of a write that never committed, e.g. because the
+	 * process died. Only call this before any write can be in progress.
+	 */
+	public synchronized void discardUncommitted() {
+		if (mNewName.exists()) {
+			mNewName.delete();
+		}
+	}
+
+	/**
+	 * Read the whole file in one go.
+	 *
+	 * @return The file contents, or an empty array if there is no file.
+	 * @throws IOException
+	 *             If the file exists but can't be read, e.g. for lack of
+	 *             permission.
+	 */
+	public byte[] readFully() throws IOException {
+		final RandomAccessFile raf;
+		try {
+			raf = new RandomAccessFile(mBaseName, "r");
+		} catch (FileNotFoundException fnfe) {
+			if (mBaseName.exists()) {
+				throw fnfe;
+			}
+			return EMPTY;
+		}
+		try {
+			final byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.android.lockpattern.widget;
+
+import com.android.lockpattern.widget.LockPatternView.Cell;
+
+/**
+ * The cells of one grid size. Every supported size is built once, when the
+ * class loads, and never changes afterwards, so views of different sizes can
+ * share the tables from any thread without locking or stepping on each
+ * other.
+ */
+public final class CellGrid {
+	public static final int MIN_SIZE = 3;
+	public static final int MAX_SIZE = 9;
+
+	private static final Cell[] NO_CELLS = new Cell[0];
+
+	private static final CellGrid[] sGrids = new CellGrid[MAX_SIZE + 1];
+	static {
+		for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+			sGrids[size] = new CellGrid(size);
+		}
+	}
+
+	private final int mSize;
+	/** row major, index = row * size + column */
+	private final Cell[] mCells;
+	/** the cells strictly between two cells, indexed from * count + to */
+	private final Cell[][] mGaps;
+
+	private CellGrid(int size) {
+		mSize = size;
+		final int count = size * size;
+		mCells = new Cell[count];
+		for (int i = 0; i < count; i++) {
+			mCells[i] = new Cell(i / size, i % size, (byte) size);
+		}
+		mGaps = new Cell[count * count][];
+		for (int from = 0; from < count; from++) {
+			for (int to = 0; to < count; to++) {
+				mGaps[from * count + to] = gap(from, to);
+			}
+		}
+	}
+
+	/**
+	 * The lattice points on the line between two cells: with g the gcd of
+	 * the row and column distances, there are g - 1 of them, evenly spaced.
+	 */
+	private Cell[] gap(int from, int to) {
+		final int dRow = to / mSize - from / mSize;
+		final int dColumn = to % mSize - from % mSize;
+		final int steps = gcd(Math.abs(dRow), Math.abs(dColumn));
+		if (steps < 2) {
+			return NO_CELLS;
+		}
+		final int step = dRow / steps * mSize + dColumn / steps;
+		final Cell[] gap = new Cell[steps - 1];
+		for (int i = 0; i < gap.length; i++) {
+			gap[i] = mCells[from + (i + 1) * step];
+		}
+		return gap;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			final int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * @param size
+	 *            The number of rows and columns, from {@link #MIN_SIZE} to
+	 *            {@link #MAX_SIZE}.
+	 * @return The grid of that size.
+	 */
+	public static CellGrid of(int size) {
+		if (size < MIN_SIZE || size > MAX_SIZE) {
+			throw new IllegalArgumentException("size must be in range "
+					+ MIN_SIZE + "-" + MAX_SIZE);
+		}
+		return sGrids[size];
+	}
+
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * @return The number of cells, size * size.
+	 */
+	public int getCellCount() {
+		return mCells.length;
+	}
+
+	/**
+	 * @return The cell at row, column.
+	 */
+	public Cell cell(int row, int column) {
+		if (row < 0 || row >= mSize) {
+			throw new IllegalArgumentException("row must be in range 0-"
+					+ (mSize - 1));
+		}
+		if (column < 0 || column >= mSize) {
+			throw new IllegalArgumentException("column must be in range 0-"
+					+ (mSize - 1));
+		}
+		return mCells[row * mSize + column];
+	}
+
+	/**
+	 * @param index
+	 *            row * size + column
+	 * @return The cell at index.
+	 */
+	public Cell cell(int index) {
+		return mCells[index];
+	}
+
+	/**
+	 * The cells a straight line from one cell to another passes through the
+	 * centers of, in order from from. The array is shared, don't modify it.
+	 *
+	 * @param from
+	 *            The index of the first cell, row * size + column.
+	 * @param to
+	 *            The index of the last cell.
+	 * @return The cells strictly between them, possibly none.
+	 */
+	Cell[] between(int from, int to) {
+		return mGaps[from * mCells.length + to];
+	}
+}
@@ -0,0 +1,290 @@
+package com.android.lockpattern.widget;
+
+/**
+ * A saved credential: the derived hash and everything needed to verify it.
+ * Immutable once created.
+ * <p>
+ * On disk a record is {@link #RECORD_LENGTH} bytes, big-endian, so it can be
+ * parsed from a single read (or a memory map) without intermediate objects:
+ *
+ * <pre>
+ *  0  int    magic, {@link #MAGIC}
+ *  4  byte   format version, {@link #VERSION}
+ *  5  byte   grid size, e.g. 4 for a 4x4 pattern, 0 for a password
+ *  6  byte   key derivation id, see {@link KeyDerivation#forId}
+ *  7  byte   hash length
+ *  8  int    cost parameter
+ * 12  byte   salt length
+ * 13  byte[3] reserved, zero
+ * 16  byte[32] salt, zero padded
+ * 48  byte[64] hash, zero padded
+ * 112 int    CRC-32 of bytes 0-111
+ * </pre>
+ *
+ * Files written before this format existed hold nothing but the hash; see
+ * {@link #legacy}.
+ */
+public final class CredentialRecord {
+	public static final int MAGIC = 0x4c504b46; // "LPKF"
+	public static final int VERSION = 1;
+
+	public static final int MAX_SALT_LENGTH = 32;
+	public static final int MAX_HASH_LENGTH = 64;
+
+	/**
+	 * The grid size of a record holding a password rather than a pattern.
+	 */
+	public static final int GRID_SIZE_PASSWORD = 0;
+
+	private static final int OFFSET_VERSION = 4;
+	private static final int OFFSET_GRID_SIZE = 5;
+	private static final int OFFSET_KDF = 6;
+	private static final int OFFSET_HASH_LENGTH = 7;
+	private static final int OFFSET_COST = 8;
+	private static final int OFFSET_SALT_LENGTH = 12;
+	private static final int OFFSET_SALT = 16;
+	private static final int OFFSET_HASH = OFFSET_SALT + MAX_SALT_LENGTH;
+	private static final int OFFSET_CHECKSUM = OFFSET_HASH + MAX_HASH_LENGTH;
+
+	/**
+	 * The length of a record on disk.
+	 */
+	public static final int RECORD_LENGTH = OFFSET_CHECKSUM + 4;
+
+	private static final int[] CRC_TABLE = new int[256];
+	static {
+		for (int n = 0; n < 256; n++) {
+			int c = n;
+			for (int k = 0; k < 8; k++) {
+				c = (c & 1) != 0 ? 0xedb88320 ^ (c >>> 1) : c >>> 1;
+			}
+			CRC_TABLE[n] = c;
+		}
+	}
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final int mGridSize;
+	private final int mKdfId;
+	/** null if the record was written with an unknown function */
+	private final KeyDerivation mKdf;
+	private final int mCost;
+	private final byte[] mSalt;
+	private final byte[] mHash;
+	private final boolean mLegacy;
+
+	private CredentialRecord(int gridSize, int kdfId, int cost, byte[] salt,
+			byte[] hash, boolean legacy) {
+		mGridSize = gridSize;
+		mKdfId = kdfId;
+		mKdf = KeyDerivation.forId(kdfId);
+		mCost = cost;
+		mSalt = salt;
+		mHash = hash;
+		mLegacy = legacy;
+	}
+
+	/**
+	 * @param gridSize
+	 *            The grid size of the pattern, or {@link #GRID_SIZE_PASSWORD}.
+	 * @param kdf
+	 *            The function the hash was derived with.
+	 * @param cost
+	 *            The cost it was derived with.
+	 * @param salt
+	 *            The salt, not copied.
+	 * @param hash
+	 *            The hash, not copied.
+	 */
+	public static CredentialRecord create(int gridSize, KeyDerivation kdf,
+			int cost, byte[] salt, byte[] hash) {
+		if (gridSize < GRID_SIZE_PASSWORD || gridSize > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("invalid grid size " + gridSize);
+		}
+		if (salt.length > MAX_SALT_LENGTH) {
+			throw new IllegalArgumentException("salt longer than "
+					+ MAX_SALT_LENGTH);
+		}
+		if (hash.length > MAX_HASH_LENGTH) {
+			throw new IllegalArgumentException("hash longer than "
+					+ MAX_HASH_LENGTH);
+		}
+		return new CredentialRecord(gridSize, kdf.getId(), cost, salt, hash,
+				false);
+	}
+
+	/**
+	 * Wrap the contents of a file written before records had a header.
+	 *
+	 * @param gridSize
+	 *            The grid size patterns were saved with.
+	 * @param kdf
+	 *            The function the hash was derived with.
+	 * @param cost
+	 *            The cost it was derived with.
+	 * @param salt
+	 *            The salt, not copied.
+	 * @param hash
+	 *            The whole file, not copied.
+	 */
+	public static CredentialRecord legacy(int gridSize, KeyDerivation kdf,
+			int cost, byte[] salt, byte[] hash) {
+		return new CredentialRecord(gridSize, kdf == null ? -1 : kdf.getId(),
+				cost, salt, hash, true);
+	}
+
+	/**
+	 * @return Whether data starts with {@link #MAGIC}. Files that don't are
+	 *         from before this format and hold only a hash.
+	 */
+	public static boolean hasHeader(byte[] data, int offset, int length) {
+		return length >= 4 && readInt(data, offset) == MAGIC;
+	}
+
+	/**
+	 * Parse a record.
+	 *
+	 * @param data
+	 *            The buffer holding the record.
+	 * @param offset
+	 *            Where the record starts.
+	 * @param length
+	 *            How many bytes are available from offset.
+	 * @return The record, or null if it is truncated, corrupt or of an
+	 *         unknown version.
+	 */
+	public static CredentialRecord parse(byte[] data, int offset, int length) {
+		if (length < RECORD_LENGTH || !hasHeader(data, offset, length)) {
+			return null;
+		}
+		if (readInt(data, offset + OFFSET_CHECKSUM) != crc32(data, offset,
+				OFFSET_CHECKSUM)) {
+			return null;
+		}
+		if (data[offset + OFFSET_VERSION] != VERSION) {
+			return null;
+		}
+		final int hashLength = data[offset + OFFSET_HASH_LENGTH] & 0xff;
+		final int saltLength = data[offset + OFFSET_SALT_LENGTH] & 0xff;
+		if (hashLength > MAX_HASH_LENGTH || saltLength > MAX_SALT_LENGTH) {
+			return null;
+		}
+		final byte[] salt = copy(data, offset + OFFSET_SALT, saltLength);
+		final byte[] hash = copy(data, offset + OFFSET_HASH, hashLength);
+		return new CredentialRecord(data[offset + OFFSET_GRID_SIZE],
+				data[offset + OFFSET_KDF] & 0xff, readInt(data, offset
+						+ OFFSET_COST), salt, hash, false);
+	}
+
+	/**
+	 * Write this record in the current format.
+	 *
+	 * @param out
+	 *            The buffer to write to, with room for {@link #RECORD_LENGTH}
+	 *            bytes from offset.
+	 * @param offset
+	 *            Where to start writing.
+	 * @return The number of bytes written.
+	 */
+	public int write(byte[] out, int offset) {
+		for (int i = 0; i < RECORD_LENGTH; i++) {
+			out[offset + i] = 0;
+		}
+		writeInt(out, offset, MAGIC);
+		out[offset + OFFSET_VERSION] = VERSION;
+		out[offset + OFFSET_GRID_SIZE] = (byte) mGridSize;
+		out[offset + OFFSET_KDF] = (byte) mKdfId;
+		out[offset + OFFSET_HASH_LENGTH] = (byte) mHash.length;
+		writeInt(out, offset + OFFSET_COST, mCost);
+		out[offset + OFFSET_SALT_LENGTH] = (byte) mSalt.length;
+		System.arraycopy(mSalt, 0, out, offset + OFFSET_SALT, mSalt.length);
+		System.arraycopy(mHash, 0, out, offset + OFFSET_HASH, mHash.length);
+		writeInt(out, offset + OFFSET_CHECKSUM,
+				crc32(out, offset, OFFSET_CHECKSUM));
+		return RECORD_LENGTH;
+	}
+
+	/**
+	 * @return This record in the current format, in a new array.
+	 */
+	public byte[] toByteArray() {
+		final byte[] out = new byte[RECORD_LENGTH];
+		write(out, 0);
+		return out;
+	}
+
+	public int getGridSize() {
+		return mGridSize;
+	}
+
+	/**
+	 * @return The function the hash was derived with, or null if it is not
+	 *         registered.
+	 */
+	public KeyDerivation getKeyDerivation() {
+		return mKdf;
+	}
+
+	public int getCost() {
+		return mCost;
+	}
+
+	/**
+	 * @return Whether this record was read from a file without a header and
+	 *         should be rewritten in the current format.
+	 */
+	public boolean isLegacy() {
+		return mLegacy;
+	}
+
+	/**
+	 * Check a pattern against this record, without allocating.
+	 *
+	 * @return Whether pattern derives to the stored hash.
+	 */
+	public boolean verify(PatternCode pattern) {
+		return mKdf != null && pattern != null
+				&& mKdf.verify(pattern, mSalt, mCost, mHash);
+	}
+
+	/**
+	 * Check raw input, e.g. an encoded password, against this record,
+	 * without allocating.
+	 *
+	 * @return Whether the first length bytes of input derive to the stored
+	 *         hash.
+	 */
+	public boolean verify(byte[] input, int length) {
+		return mKdf != null && input != null
+				&& mKdf.verify(input, length, mSalt, mCost, mHash);
+	}
+
+	private static byte[] copy(byte[] data, int offset, int length) {
+		if (length == 0) {
+			return EMPTY;
+		}
+		final byte[] result = new byte[length];
+		System.arraycopy(data, offset, result, 0, length);
+		return result;
+	}
+
+	static int crc32(byte[] data, int offset, int length) {
+		int c = 0xffffffff;
+		for (int i = 0; i < length; i++) {
+			c = CRC_TABLE[(c ^ data[offset + i]) & 0xff] ^ (c >>> 8);
+		}
+		return ~c;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+				| (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+	}
+
+	private static void writeInt(byte[] out, int offset, int value) {
+		out[offset] = (byte) (value >>> 24);
+		out[offset + 1] = (byte) (value >>> 16);
+		out[offset + 2] = (byte) (value >>> 8);
+		out[offset + 3] = (byte) value;
+	}
+}
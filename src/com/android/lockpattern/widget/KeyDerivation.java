@@ -0,0 +1,343 @@
+package com.android.lockpattern.widget;
+
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * A key derivation function used to turn a pattern into the hash stored by
+ * {@link LockPatternUtils}. Implementations are looked up by the id stored
+ * next to the hash, so new ones can be added with {@link #register} without
+ * breaking patterns saved with older ones.
+ */
+public abstract class KeyDerivation {
+	/**
+	 * Unsalted SHA-1, the original pattern hash. Ignores salt and cost.
+	 */
+	public static final int ID_SHA1 = 0;
+	/**
+	 * PBKDF2 with HMAC-SHA256, cost is the iteration count.
+	 */
+	public static final int ID_PBKDF2_HMAC_SHA256 = 1;
+
+	public static final KeyDerivation SHA1 = new Sha1();
+	public static final KeyDerivation PBKDF2_HMAC_SHA256 = new Pbkdf2HmacSha256();
+
+	/**
+	 * The length of the salt generated for new patterns.
+	 */
+	public static final int SALT_LENGTH = 16;
+
+	private static final int MAX_ID = 15;
+	private static final KeyDerivation[] sRegistered = new KeyDerivation[MAX_ID + 1];
+	static {
+		register(SHA1);
+		register(PBKDF2_HMAC_SHA256);
+	}
+
+	private static final ThreadLocal<byte[][]> sScratch = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[][] { new byte[PatternCode.MAX_LENGTH],
+					new byte[64] };
+		}
+	};
+
+	private final int mId;
+	private final int mHashLength;
+	private final int mMinCost;
+	private final int mMaxCost;
+
+	/**
+	 * @param id
+	 *            The id stored next to hashes derived with this function.
+	 * @param hashLength
+	 *            The length of a derived hash.
+	 * @param minCost
+	 *            The smallest cost {@link #calibrate} will pick.
+	 * @param maxCost
+	 *            The largest cost {@link #calibrate} will pick.
+	 */
+	protected KeyDerivation(int id, int hashLength, int minCost, int maxCost) {
+		mId = id;
+		mHashLength = hashLength;
+		mMinCost = minCost;
+		mMaxCost = maxCost;
+	}
+
+	/**
+	 * Make a key derivation function available to {@link #forId}.
+	 */
+	public static synchronized void register(KeyDerivation kdf) {
+		if (kdf.mId < 0 || kdf.mId > MAX_ID) {
+			throw new IllegalArgumentException("id must be in range 0-"
+					+ MAX_ID);
+		}
+		sRegistered[kdf.mId] = kdf;
+	}
+
+	/**
+	 * @return The key derivation function registered under id, or null.
+	 */
+	public static synchronized KeyDerivation forId(int id) {
+		if (id < 0 || id > MAX_ID) {
+			return null;
+		}
+		return sRegistered[id];
+	}
+
+	public final int getId() {
+		return mId;
+	}
+
+	public final int getHashLength() {
+		return mHashLength;
+	}
+
+	/**
+	 * Derive a hash from raw input.
+	 *
+	 * @param input
+	 *            The input bytes.
+	 * @param inputLength
+	 *            How many bytes of input to use.
+	 * @param salt
+	 *            The salt.
+	 * @param cost
+	 *            The cost parameter, e.g. the number of iterations.
+	 * @param out
+	 *            Receives {@link #getHashLength()} bytes.
+	 * @param offset
+	 *            Where to start writing.
+	 */
+	public abstract void derive(byte[] input, int inputLength, byte[] salt,
+			int cost, byte[] out, int offset);
+
+	/**
+	 * Derive the hash of a pattern.
+	 *
+	 * @return A new array holding the hash.
+	 */
+	public byte[] derive(PatternCode pattern, byte[] salt, int cost) {
+		final byte[] input = sScratch.get()[0];
+		final int length = pattern.toBytes(input, 0);
+		try {
+			final byte[] hash = new byte[mHashLength];
+			derive(input, length, salt, cost, hash, 0);
+			return hash;
+		} finally {
+			Arrays.fill(input, 0, length, (byte) 0);
+		}
+	}
+
+	/**
+	 * Check whether a pattern derives to an expected hash, without
+	 * allocating. Compares in time independent of where the hashes differ.
+	 */
+	public boolean verify(PatternCode pattern, byte[] salt, int cost,
+			byte[] expected) {
+		final byte[] input = sScratch.get()[0];
+		final int length = pattern.toBytes(input, 0);
+		try {
+			return verify(input, length, salt, cost, expected);
+		} finally {
+			Arrays.fill(input, 0, length, (byte) 0);
+		}
+	}
+
+	/**
+	 * Check whether raw input derives to an expected hash, without
+	 * allocating. Compares in time independent of where the hashes differ.
+	 * Does not clear input.
+	 */
+	public boolean verify(byte[] input, int inputLength, byte[] salt,
+			int cost, byte[] expected) {
+		if (expected.length != mHashLength) {
+			return false;
+		}
+		final byte[] actual = sScratch.get()[1];
+		try {
+			derive(input, inputLength, salt, cost, actual, 0);
+			int diff = 0;
+			for (int i = 0; i < mHashLength; i++) {
+				diff |= actual[i] ^ expected[i];
+			}
+			return diff == 0;
+		} finally {
+			Arrays.fill(actual, 0, mHashLength, (byte) 0);
+		}
+	}
+
+	/**
+	 * Benchmark this device and pick the cost that makes one derivation take
+	 * about targetMillis. Takes a few times targetMillis to run, so only call
+	 * it at setup time and off the main thread where possible.
+	 *
+	 * @param targetMillis
+	 *            The verification latency to aim for.
+	 * @return The cost to use, within this function's limits.
+	 */
+	public int calibrate(long targetMillis) {
+		if (mMinCost == mMaxCost) {
+			return mMinCost;
+		}
+		final byte[] input = new byte[PatternCode.MAX_LENGTH];
+		final byte[] salt = new byte[SALT_LENGTH];
+		final byte[] out = new byte[mHashLength];
+		final int probeCost = mMinCost;
+		// the first run pays for class loading and JIT, keep the fastest
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			final long start = System.nanoTime();
+			derive(input, input.length, salt, probeCost, out, 0);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		final double nanosPerCost = Math.max(best, 1L) / (double) probeCost;
+		final double cost = targetMillis * 1000000.0 / nanosPerCost;
+		return (int) Math.max(mMinCost, Math.min(mMaxCost, cost));
+	}
+
+	private static final class Sha1 extends KeyDerivation {
+		Sha1() {
+			super(ID_SHA1, PatternHasher.HASH_LENGTH, 1, 1);
+		}
+
+		@Override
+		public void derive(byte[] input, int inputLength, byte[] salt,
+				int cost, byte[] out, int offset) {
+			PatternHasher.hash(input, inputLength, out, offset);
+		}
+	}
+
+	private static final class Pbkdf2HmacSha256 extends KeyDerivation {
+		private static final String MAC_ALGORITHM = "HmacSHA256";
+		private static final String DIGEST_ALGORITHM = "SHA-256";
+		private static final int MAC_LENGTH = 32;
+		/** HMAC pads shorter keys with zeros to this length */
+		private static final int BLOCK_LENGTH = 64;
+
+		private static final ThreadLocal<Mac> sMac = new ThreadLocal<Mac>() {
+			@Override
+			protected Mac initialValue() {
+				try {
+					return Mac.getInstance(MAC_ALGORITHM);
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException("Couldn't get "
+							+ MAC_ALGORITHM, e);
+				}
+			}
+		};
+		private static final ThreadLocal<byte[]> sBlock = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[MAC_LENGTH];
+			}
+		};
+		private static final ThreadLocal<ScratchKey> sKey = new ThreadLocal<ScratchKey>() {
+			@Override
+			protected ScratchKey initialValue() {
+				return new ScratchKey();
+			}
+		};
+		private static final ThreadLocal<MessageDigest> sDigest = new ThreadLocal<MessageDigest>() {
+			@Override
+			protected MessageDigest initialValue() {
+				try {
+					return MessageDigest.getInstance(DIGEST_ALGORITHM);
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException("Couldn't get "
+							+ DIGEST_ALGORITHM, e);
+				}
+			}
+		};
+
+		Pbkdf2HmacSha256() {
+			super(ID_PBKDF2_HMAC_SHA256, MAC_LENGTH, 1000, 1 << 22);
+		}
+
+		@Override
+		public void derive(byte[] input, int inputLength, byte[] salt,
+				int cost, byte[] out, int offset) {
+			final Mac mac = sMac.get();
+			final byte[] u = sBlock.get();
+			final ScratchKey key = sKey.get();
+			try {
+				key.set(input, inputLength);
+				mac.init(key);
+				// a single block: the derived key is exactly one MAC long
+				mac.update(salt);
+				mac.update((byte) 0);
+				mac.update((byte) 0);
+				mac.update((byte) 0);
+				mac.update((byte) 1);
+				mac.doFinal(u, 0);
+				System.arraycopy(u, 0, out, offset, MAC_LENGTH);
+				for (int i = 1; i < cost; i++) {
+					mac.update(u);
+					mac.doFinal(u, 0);
+					for (int j = 0; j < MAC_LENGTH; j++) {
+						out[offset + j] ^= u[j];
+					}
+				}
+				// rekey with zeros, so the Mac doesn't keep the input's pads
+				key.clear();
+				mac.init(key);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Couldn't derive key", e);
+			} finally {
+				Arrays.fill(u, (byte) 0);
+				key.clear();
+			}
+		}
+
+		/**
+		 * An HMAC key over a reused block. Unlike SecretKeySpec it doesn't
+		 * copy the input on every derivation, and it can be cleared. Some
+		 * providers keep the encoded key until the next init, so it is
+		 * only cleared once the derivation is done.
+		 */
+		private static final class ScratchKey implements SecretKey {
+			private static final long serialVersionUID = 1L;
+
+			private final byte[] mBlock = new byte[BLOCK_LENGTH];
+
+			/**
+			 * Load a key, padded with zeros to the block length the way
+			 * HMAC does, or first hashed if it is longer. Also gives an empty
+			 * input a valid key. Either way the MAC is the same as keying
+			 * with the input itself.
+			 */
+			void set(byte[] input, int length) throws DigestException {
+				if (length <= BLOCK_LENGTH) {
+					System.arraycopy(input, 0, mBlock, 0, length);
+					Arrays.fill(mBlock, length, BLOCK_LENGTH, (byte) 0);
+				} else {
+					final MessageDigest digest = sDigest.get();
+					digest.update(input, 0, length);
+					digest.digest(mBlock, 0, MAC_LENGTH);
+					Arrays.fill(mBlock, MAC_LENGTH, BLOCK_LENGTH, (byte) 0);
+				}
+			}
+
+			void clear() {
+				Arrays.fill(mBlock, (byte) 0);
+			}
+
+			public String getAlgorithm() {
+				return MAC_ALGORITHM;
+			}
+
+			public String getFormat() {
+				return "RAW";
+			}
+
+			public byte[] getEncoded() {
+				return mBlock;
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.android.lockpattern.widget;
+
+/**
+ * Timings of one {@link LockPatternView}, for telemetry to poll. Every
+ * buffer is allocated up front and recording only updates counters, so it is
+ * cheap enough to leave on in production builds.
+ * <p>
+ * Each metric keeps its last {@link #HISTORY_LENGTH} samples in a ring
+ * buffer, plus a histogram of every sample since the last {@link #reset}.
+ * Bucket 0 counts samples under a microsecond; bucket i counts samples from
+ * 2^(i-1) up to 2^i microseconds, and the last bucket everything longer. All
+ * durations are in nanoseconds. Latencies from touch events start at the
+ * event's timestamp, so they have millisecond resolution.
+ */
+public final class LockPatternMetrics {
+	/** Time spent in onDraw. */
+	public static final int DRAW = 0;
+	/** From a touch sample to the report of a cell it added. */
+	public static final int CELL_ADDED = 1;
+	/**
+	 * From ACTION_UP to the pattern's display mode being set, or the pattern
+	 * being cleared, in response.
+	 */
+	public static final int VERDICT = 2;
+	public static final int METRIC_COUNT = 3;
+
+	public static final int HISTORY_LENGTH = 64;
+	public static final int BUCKET_COUNT = 26;
+
+	private final long[][] mHistory = new long[METRIC_COUNT][HISTORY_LENGTH];
+	private final long[][] mBuckets = new long[METRIC_COUNT][BUCKET_COUNT];
+	private final long[] mCount = new long[METRIC_COUNT];
+	private final long[] mSum = new long[METRIC_COUNT];
+	private final long[] mMax = new long[METRIC_COUNT];
+
+	/**
+	 * Record a sample.
+	 *
+	 * @param metric
+	 *            One of {@link #DRAW}, {@link #CELL_ADDED} or
+	 *            {@link #VERDICT}.
+	 * @param nanos
+	 *            The duration, negative values count as 0.
+	 */
+	public synchronized void record(int metric, long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		final long count = mCount[metric];
+		mHistory[metric][(int) (count % HISTORY_LENGTH)] = nanos;
+		mBuckets[metric][bucketOf(nanos)]++;
+		mCount[metric] = count + 1;
+		mSum[metric] += nanos;
+		if (nanos > mMax[metric]) {
+			mMax[metric] = nanos;
+		}
+	}
+
+	/**
+	 * @return How many samples of metric were recorded since the last reset.
+	 */
+	public synchronized long getCount(int metric) {
+		return mCount[metric];
+	}
+
+	/**
+	 * @return The sum of the samples of metric, for the mean.
+	 */
+	public synchronized long getTotalNanos(int metric) {
+		return mSum[metric];
+	}
+
+	/**
+	 * @return The longest sample of metric.
+	 */
+	public synchronized long getMaxNanos(int metric) {
+		return mMax[metric];
+	}
+
+	/**
+	 * Copy the most recent samples of a metric, oldest first.
+	 *
+	 * @param metric
+	 *            The metric.
+	 * @param out
+	 *            Receives up to {@link #HISTORY_LENGTH} samples.
+	 * @return The number of samples copied.
+	 */
+	public synchronized int getRecent(int metric, long[] out) {
+		final long count = mCount[metric];
+		final int length = (int) Math.min(Math.min(count, HISTORY_LENGTH),
+				out.length);
+		final long[] history = mHistory[metric];
+		for (int i = 0; i < length; i++) {
+			out[i] = history[(int) ((count - length + i) % HISTORY_LENGTH)];
+		}
+		return length;
+	}
+
+	/**
+	 * Copy the histogram of a metric.
+	 *
+	 * @param metric
+	 *            The metric.
+	 * @param out
+	 *            Receives the {@link #BUCKET_COUNT} bucket counts.
+	 */
+	public synchronized void getHistogram(int metric, long[] out) {
+		System.arraycopy(mBuckets[metric], 0, out, 0, BUCKET_COUNT);
+	}
+
+	/**
+	 * @return The smallest duration that no longer counts in bucket, or
+	 *         {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public static long getBucketLimitNanos(int bucket) {
+		if (bucket >= BUCKET_COUNT - 1) {
+			return Long.MAX_VALUE;
+		}
+		return 1000L << bucket;
+	}
+
+	/**
+	 * Forget every sample, e.g. after telemetry has uploaded them.
+	 */
+	public synchronized void reset() {
+		for (int metric = 0; metric < METRIC_COUNT; metric++) {
+			final long[] buckets = mBuckets[metric];
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets[i] = 0;
+			}
+			mCount[metric] = 0;
+			mSum[metric] = 0;
+			mMax[metric] = 0;
+		}
+	}
+
+	private static int bucketOf(long nanos) {
+		final long micros = nanos / 1000;
+		// bit length of micros: 0 for 0, i for [2^(i-1), 2^i)
+		final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+}
@@ -5,12 +5,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.os.Parcel;
@@ -34,6 +33,11 @@ public class LockPatternSmallView extends View {
     private static final int ASPECT_LOCK_WIDTH = 1; // Fixed width; height will be minimum of (w,h)
     private static final int ASPECT_LOCK_HEIGHT = 2; // Fixed height; width will be minimum of (w,h)
 
+    private static final int[] CIRCLE_RESOURCES = {
+            R.drawable.gesture_pattern_item_bg,
+            R.drawable.gesture_pattern_selected
+    };
+
     private Paint mPaint = new Paint();
     private Paint mPathPaint = new Paint();
 
@@ -77,7 +81,20 @@ public class LockPatternSmallView extends View {
     private int mBitmapHeight;
 
     private int mAspect;
-    private final Matrix mCircleMatrix = new Matrix();
+    /**
+     * Geometry of each row and column, rebuilt when the size, padding or
+     * grid size changes: the center of the cells and where their circle
+     * bitmaps are drawn.
+     */
+    private float[] mCenterX = new float[mPatternSize];
+    private float[] mCenterY = new float[mPatternSize];
+    private float[] mCircleLeft = new float[mPatternSize];
+    private float[] mCircleTop = new float[mPatternSize];
+    /** the padding the geometry was last computed for */
+    private int mGeometryPaddingLeft;
+    private int mGeometryPaddingTop;
+    private int mGeometryPaddingRight;
+    private int mGeometryPaddingBottom;
 
     public LockPatternSmallView(Context context) {
         this(context, null);
@@ -110,33 +127,35 @@ public class LockPatternSmallView extends View {
         mPathPaint.setStrokeJoin(Paint.Join.ROUND);
         mPathPaint.setStrokeCap(Paint.Cap.ROUND);
 
-        // lot's of bitmaps!
-		mBitmapCircleDefault = getBitmapFor(R.drawable.gesture_pattern_item_bg);
-		mBitmapCircleGreen = getBitmapFor(R.drawable.gesture_pattern_selected);
-
+        // lot's of bitmaps! Only their sizes are needed until layout, the
+        // bitmaps come from the shared cache already scaled to the cells.
         // bitmaps have the size of the largest bitmap in this group
-		final Bitmap bitmaps[] = { mBitmapCircleDefault, mBitmapCircleGreen };
-
-		for (Bitmap bitmap : bitmaps) {
-			mBitmapWidth = Math.max(mBitmapWidth, bitmap.getWidth());
-			mBitmapHeight = Math.max(mBitmapHeight, bitmap.getHeight());
-		}
-    }
-
-    private Bitmap getBitmapFor(int resId) {
-        return BitmapFactory.decodeResource(getContext().getResources(), resId);
+        final int[] size = new int[2];
+        for (int resId : CIRCLE_RESOURCES) {
+            PatternBitmapCache.getSize(getResources(), resId, size);
+            mBitmapWidth = Math.max(mBitmapWidth, size[0]);
+            mBitmapHeight = Math.max(mBitmapHeight, size[1]);
+        }
     }
 
     /**
      * Set the pattern size of the lockscreen
      *
      * @param size The pattern size.
+     * @throws IllegalArgumentException If size is above
+     *         {@link PatternCode#GRID_SIZE}: patterns are checked and saved
+     *         packed, which only fits grids up to that size.
      */
     public void setLockPatternSize(byte size) {
+        if (size < 1 || size > PatternCode.GRID_SIZE) {
+            throw new IllegalArgumentException("pattern size must be in range 1-"
+                    + PatternCode.GRID_SIZE);
+        }
+        CellGrid.of(size);
         mPatternSize = size;
-        Cell.updateSize(size);
         mPattern = new ArrayList<Cell>(size * size);
         mPatternDrawLookup = new boolean[size][size];
+        updateGeometry(getWidth(), getHeight());
     }
 
     public void setPattern(List<Cell> pattern) {
@@ -148,6 +167,62 @@ public class LockPatternSmallView extends View {
         }
 		invalidate(getLeft(), getTop(), getRight(), getBottom());
     }
+
+    public void setPattern(PatternCode pattern) {
+        mPattern.clear();
+        clearPatternDrawLookup();
+        final int count = pattern.size();
+        for (int i = 0; i < count; i++) {
+            final Cell cell = pattern.cellAt(i);
+            mPattern.add(cell);
+            mPatternDrawLookup[cell.getRow()][cell.getColumn()] = true;
+        }
+		invalidate(getLeft(), getTop(), getRight(), getBottom());
+    }
+
+    /**
+     * Add one cell to the pattern, e.g. from
+     * {@link LockPatternView.OnPatternDeltaListener}, redrawing only the
+     * cell and the segment to it.
+     *
+     * @param index The position of the cell. Cells from there on are
+     *        dropped first, so 0 starts a new pattern.
+     * @param cell The cell.
+     */
+    public void addCell(int index, Cell cell) {
+        final ArrayList<Cell> pattern = mPattern;
+        if (index < 0 || index > pattern.size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size "
+                    + pattern.size());
+        }
+        if (index < pattern.size()) {
+            while (pattern.size() > index) {
+                final Cell removed = pattern.remove(pattern.size() - 1);
+                mPatternDrawLookup[removed.row][removed.column] = false;
+            }
+            invalidate();
+        }
+        pattern.add(cell);
+        mPatternDrawLookup[cell.row][cell.column] = true;
+
+        final float centerX = getCenterXForColumn(cell.column);
+        final float centerY = getCenterYForRow(cell.row);
+        float left = centerX;
+        float top = centerY;
+        float right = centerX;
+        float bottom = centerY;
+        if (index > 0) {
+            final Cell previous = pattern.get(index - 1);
+            left = Math.min(left, getCenterXForColumn(previous.column));
+            top = Math.min(top, getCenterYForRow(previous.row));
+            right = Math.max(right, getCenterXForColumn(previous.column));
+            bottom = Math.max(bottom, getCenterYForRow(previous.row));
+        }
+        final float halfWidth = mSquareWidth * 0.5f;
+        final float halfHeight = mSquareHeight * 0.5f;
+        invalidate((int) Math.floor(left - halfWidth), (int) Math.floor(top - halfHeight),
+                (int) Math.ceil(right + halfWidth), (int) Math.ceil(bottom + halfHeight));
+    }
     
     /**
      * Clear the pattern.
@@ -193,11 +268,66 @@ public class LockPatternSmallView extends View {
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        updateGeometry(w, h);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        // a padding change requests a layout but doesn't change the size.
+        // Not caught in setPadding(), the View constructor calls that before
+        // the fields here are initialized.
+        if (getPaddingLeft() != mGeometryPaddingLeft || getPaddingTop() != mGeometryPaddingTop
+                || getPaddingRight() != mGeometryPaddingRight
+                || getPaddingBottom() != mGeometryPaddingBottom) {
+            updateGeometry(getWidth(), getHeight());
+        }
+    }
+
+    private void updateGeometry(int w, int h) {
+        mGeometryPaddingLeft = getPaddingLeft();
+        mGeometryPaddingTop = getPaddingTop();
+        mGeometryPaddingRight = getPaddingRight();
+        mGeometryPaddingBottom = getPaddingBottom();
         final int width = w - getPaddingLeft() - getPaddingRight();
         mSquareWidth = width / (float) mPatternSize;
 
         final int height = h - getPaddingTop() - getPaddingBottom();
         mSquareHeight = height / (float) mPatternSize;
+
+        // Allow circles to shrink if the view is too small to hold them.
+        final float sx = Math.min(mSquareWidth / mBitmapWidth, 1.0f);
+        final float sy = Math.min(mSquareHeight / mBitmapHeight, 1.0f);
+        if (sx > 0f && sy > 0f) {
+            final Resources res = getResources();
+            mBitmapCircleDefault = PatternBitmapCache.get(res,
+                    R.drawable.gesture_pattern_item_bg, sx, sy);
+            mBitmapCircleGreen = PatternBitmapCache.get(res,
+                    R.drawable.gesture_pattern_selected, sx, sy);
+        } else {
+            mBitmapCircleDefault = null;
+            mBitmapCircleGreen = null;
+        }
+
+        if (mCenterX.length != mPatternSize) {
+            mCenterX = new float[mPatternSize];
+            mCenterY = new float[mPatternSize];
+            mCircleLeft = new float[mPatternSize];
+            mCircleTop = new float[mPatternSize];
+        }
+        // the circles are centered in their squares
+        final float circleOffsetX = (int) ((mSquareWidth - mBitmapWidth) / 2f)
+                + mBitmapWidth / 2 * (1f - sx);
+        final float circleOffsetY = (int) ((mSquareHeight - mBitmapHeight) / 2f)
+                + mBitmapHeight / 2 * (1f - sy);
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        for (int i = 0; i < mPatternSize; i++) {
+            mCenterX[i] = paddingLeft + i * mSquareWidth + mSquareWidth / 2f;
+            mCenterY[i] = paddingTop + i * mSquareHeight + mSquareHeight / 2f;
+            mCircleLeft[i] = (int) (paddingLeft + i * mSquareWidth) + circleOffsetX;
+            mCircleTop[i] = (int) (paddingTop + i * mSquareHeight) + circleOffsetY;
+        }
     }
 
 	private int resolveMeasured(int measureSpec, int desired) {
@@ -253,11 +383,11 @@ public class LockPatternSmallView extends View {
 
 
     private float getCenterXForColumn(int column) {
-        return getPaddingLeft() + column * mSquareWidth + mSquareWidth / 2f;
+        return mCenterX[column];
     }
 
     private float getCenterYForRow(int row) {
-        return getPaddingTop() + row * mSquareHeight + mSquareHeight / 2f;
+        return mCenterY[row];
     }
 
     @Override
@@ -267,7 +397,6 @@ public class LockPatternSmallView extends View {
         final boolean[][] drawLookup = mPatternDrawLookup;
 
         final float squareWidth = mSquareWidth;
-        final float squareHeight = mSquareHeight;
 
         float radius = (squareWidth * mDiameterFactor * 0.5f);
         mPathPaint.setStrokeWidth(radius);
@@ -316,14 +445,9 @@ public class LockPatternSmallView extends View {
         }
         
         // draw the circles
-        final int paddingTop = getPaddingTop();
-        final int paddingLeft = getPaddingLeft();
-
         for (int i = 0; i < mPatternSize; i++) {
-            float topY = paddingTop + i * squareHeight;
             for (int j = 0; j < mPatternSize; j++) {
-                float leftX = paddingLeft + j * squareWidth;
-                drawCircle(canvas, (int) leftX, (int) topY, drawLookup[i][j]);
+                drawCircle(canvas, i, j, drawLookup[i][j]);
             }
         }
 
@@ -332,11 +456,11 @@ public class LockPatternSmallView extends View {
 
     /**
      * @param canvas
-     * @param leftX
-     * @param topY
+     * @param row
+     * @param column
      * @param partOfPattern Whether this circle is part of the pattern.
      */
-    private void drawCircle(Canvas canvas, int leftX, int topY, boolean partOfPattern) {
+    private void drawCircle(Canvas canvas, int row, int column, boolean partOfPattern) {
         Bitmap outerCircle = mBitmapCircleDefault;
         Bitmap innerCircle = null;
 		if (!partOfPattern
@@ -348,28 +472,16 @@ public class LockPatternSmallView extends View {
 			innerCircle = mBitmapCircleGreen;
 		}
 
-        final int width = mBitmapWidth;
-        final int height = mBitmapHeight;
-
-        final float squareWidth = mSquareWidth;
-        final float squareHeight = mSquareHeight;
-
-        int offsetX = (int) ((squareWidth - width) / 2f);
-        int offsetY = (int) ((squareHeight - height) / 2f);
-
-        // Allow circles to shrink if the view is too small to hold them.
-        float sx = Math.min(mSquareWidth / mBitmapWidth, 1.0f);
-        float sy = Math.min(mSquareHeight / mBitmapHeight, 1.0f);
-
-		mCircleMatrix.setTranslate(leftX + offsetX, topY + offsetY);
-		mCircleMatrix.preTranslate(mBitmapWidth / 2, mBitmapHeight / 2);
-		mCircleMatrix.preScale(sx, sy);
-		mCircleMatrix.preTranslate(-mBitmapWidth / 2, -mBitmapHeight / 2);
+        if (outerCircle == null) {
+            // not laid out yet
+            return;
+        }
+        final float left = mCircleLeft[column];
+        final float top = mCircleTop[row];
+        canvas.drawBitmap(outerCircle, left, top, mPaint);
 
-        canvas.drawBitmap(outerCircle, mCircleMatrix, mPaint);
-        
 		if (innerCircle != null) {
-			canvas.drawBitmap(innerCircle, mCircleMatrix, mPaint);
+			canvas.drawBitmap(innerCircle, left, top, mPaint);
 		}
     }
 
@@ -377,7 +489,7 @@ public class LockPatternSmallView extends View {
     protected Parcelable onSaveInstanceState() {
         Parcelable superState = super.onSaveInstanceState();
         return new SavedState(superState,
-                LockPatternUtils.patternToString(mPattern),
+                LockPatternUtils.patternToString(mPattern, mPatternSize),
                 mPatternSize,
                 mInputEnabled, mInStealthMode, mVisibleDots, mShowErrorPath);
     }
@@ -386,8 +498,9 @@ public class LockPatternSmallView extends View {
     protected void onRestoreInstanceState(Parcelable state) {
         final SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(ss.getSuperState());
-        setPattern(LockPatternUtils.stringToPattern(ss.getSerializedPattern()));
-        mPatternSize = ss.getPatternSize();
+        setLockPatternSize(ss.getPatternSize());
+        setPattern(LockPatternUtils.stringToPattern(ss.getSerializedPattern(),
+                mPatternSize));
         mInputEnabled = ss.isInputEnabled();
         mInStealthMode = ss.isInStealthMode();
         mVisibleDots = ss.isVisibleDots();
@@ -1,18 +1,20 @@
 package com.android.lockpattern.widget;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
 import android.util.Log;
 
 /**
@@ -54,10 +56,91 @@ public class LockPatternUtils {
 	 */
 	public static final long FAILED_ATTEMPT_TIMEOUT_MS = 30000L;
 
+	/**
+	 * How long verifying a pattern should take on this device. New patterns
+	 * are derived with a cost calibrated to this latency.
+	 */
+	public static final long DEFAULT_VERIFY_MILLIS = 50L;
+
+	/*
+	 * Patterns saved before gesture.key had a header kept their key
+	 * derivation parameters here. Only read to verify and upgrade them.
+	 */
+	private static final String LOCK_PATTERN_PREFS = "lock_pattern";
+	private static final String LOCK_PATTERN_KDF_KEY = "lockscreen.pattern_kdf";
+	private static final String LOCK_PATTERN_COST_KEY = "lockscreen.pattern_kdf_cost";
+	private static final String LOCK_PATTERN_SALT_KEY = "lockscreen.pattern_salt";
+	/*
+	 * Set once an empty file left by the old clearLock() has been looked
+	 * for, so one found afterwards is never mistaken for no lock.
+	 */
+	private static final String LOCK_PATTERN_EMPTY_CHECKED_KEY = "lockscreen.pattern_empty_checked";
+
+	private static final byte[] NO_STORED_HASH = new byte[0];
+	/**
+	 * Stands in for a file that can't be parsed. Never matches.
+	 */
+	private static final CredentialRecord CORRUPT_RECORD = CredentialRecord
+			.legacy(PATTERN_SIZE_DEFAULT, null, 0, NO_STORED_HASH,
+					NO_STORED_HASH);
+
 	private static File sLockPatternFilename;
-	private static final AtomicBoolean sHaveNonZeroPatternFile = new AtomicBoolean(false);
+	private static AtomicKeyFile sLockPatternFile;
+	private static SharedPreferences sPreferences;
+	/**
+	 * Immutable snapshot of the record stored in {@link #LOCK_PATTERN_FILE},
+	 * or null if there is none. Loaded once, then replaced (never modified)
+	 * whenever the file changes, so that checking a pattern never has to
+	 * touch the disk.
+	 */
+	private static volatile CredentialRecord sStoredRecord;
 	private static FileObserver sPasswordObserver;
 
+	/**
+	 * Held while the file, {@link #sStoredRecord} and the legacy
+	 * preferences are changed, so saves from the main thread, the check
+	 * executor's upgrades and {@link #clearLock} never interleave. Not the
+	 * class lock, which the main thread takes to post checks.
+	 */
+	private static final Object sWriteLock = new Object();
+
+	private static volatile KeyDerivation sKeyDerivation = KeyDerivation.PBKDF2_HMAC_SHA256;
+	private static volatile long sVerifyMillis = DEFAULT_VERIFY_MILLIS;
+	private static int sCalibratedCost;
+	private static KeyDerivation sCalibratedKeyDerivation;
+
+	/**
+	 * Runs {@link #checkPatternAsync} and {@link #saveLockPatternAsync}
+	 * requests, one at a time, off the main thread. Created on first use.
+	 */
+	private static ExecutorService sCheckExecutor;
+	private static Handler sMainHandler;
+
+	/**
+	 * The call back interface for {@link #checkPatternAsync}.
+	 */
+	public static interface OnCheckPatternListener {
+
+		/**
+		 * The pattern has been checked. Always called on the main thread.
+		 * @param matched Whether the pattern matches the stored one.
+		 */
+		void onPatternChecked(boolean matched);
+	}
+
+	/**
+	 * The call back interface for {@link #saveLockPatternAsync}.
+	 */
+	public static interface OnSavePatternListener {
+
+		/**
+		 * The pattern has been saved, or saving failed. Always called on the
+		 * main thread.
+		 * @param saved Whether the pattern is now the stored one.
+		 */
+		void onPatternSaved(boolean saved);
+	}
+
 	private static class LockPatternFileObserver extends FileObserver {
 		public LockPatternFileObserver(String path, int mask) {
 			super(path, mask);
@@ -68,7 +151,10 @@ public class LockPatternUtils {
 			Log.d(TAG, "file path" + path);
 			if (LOCK_PATTERN_FILE.equals(path)) {
 				Log.d(TAG, "lock pattern file changed");
-				sHaveNonZeroPatternFile.set(sLockPatternFilename.length() > 0);
+				// under the lock, so a stale read can't replace a newer save
+				synchronized (sWriteLock) {
+					sStoredRecord = readStoredRecord();
+				}
 			}
 		}
 	}
@@ -79,7 +165,14 @@ public class LockPatternUtils {
 					.getAbsolutePath();
 			sLockPatternFilename = new File(dataSystemDirectory
 					, LOCK_PATTERN_FILE);
-			sHaveNonZeroPatternFile.set(sLockPatternFilename.length() > 0);
+			sLockPatternFile = new AtomicKeyFile(sLockPatternFilename);
+			sPreferences = context.getSharedPreferences(LOCK_PATTERN_PREFS,
+					Context.MODE_PRIVATE);
+			synchronized (sWriteLock) {
+				sLockPatternFile.discardUncommitted();
+				deleteLegacyClearedFile();
+				sStoredRecord = readStoredRecord();
+			}
 			int fileObserverMask = FileObserver.CLOSE_WRITE
 					| FileObserver.DELETE | FileObserver.MOVED_TO
 					| FileObserver.CREATE;
@@ -95,11 +188,121 @@ public class LockPatternUtils {
 	 * @return Whether a saved pattern exists.
 	 */
 	public boolean savedPatternExists() {
-		return sHaveNonZeroPatternFile.get();
+		return sStoredRecord != null;
+	}
+
+	/**
+	 * Choose the key derivation function for patterns saved from now on.
+	 * 
+	 * @param kdf
+	 *            The key derivation function.
+	 * @param verifyMillis
+	 *            How long verifying a pattern should take; the cost is
+	 *            calibrated to it on the next save.
+	 */
+	public void setKeyDerivation(KeyDerivation kdf, long verifyMillis) {
+		KeyDerivation.register(kdf);
+		synchronized (sWriteLock) {
+			sKeyDerivation = kdf;
+			sVerifyMillis = verifyMillis;
+			sCalibratedKeyDerivation = null;
+		}
+	}
+
+	/**
+	 * @return The cost for new patterns, benchmarked once per process. Call
+	 *         with {@link #sWriteLock} held.
+	 */
+	private static int getCalibratedCost(KeyDerivation kdf) {
+		if (sCalibratedKeyDerivation != kdf) {
+			sCalibratedCost = kdf.calibrate(sVerifyMillis);
+			sCalibratedKeyDerivation = kdf;
+			Log.v(TAG, "Calibrated pattern cost " + sCalibratedCost);
+		}
+		return sCalibratedCost;
+	}
+
+	/**
+	 * clearLock() used to truncate the file rather than delete it. Remove
+	 * such a file the first time this version runs; from then on an empty
+	 * file is treated as corrupt rather than as no lock. Call with
+	 * {@link #sWriteLock} held.
+	 */
+	private static void deleteLegacyClearedFile() {
+		if (sPreferences.getBoolean(LOCK_PATTERN_EMPTY_CHECKED_KEY, false)) {
+			return;
+		}
+		if (sLockPatternFilename.isFile()
+				&& sLockPatternFilename.length() == 0) {
+			Log.d(TAG, "Removing empty lock pattern file");
+			if (!sLockPatternFile.delete()) {
+				// try again next time rather than lock the user out
+				return;
+			}
+		}
+		sPreferences.edit().putBoolean(LOCK_PATTERN_EMPTY_CHECKED_KEY, true)
+				.commit();
+	}
+
+	/**
+	 * Read the stored record from disk.
+	 * 
+	 * @return The record, or null if no pattern is saved.
+	 */
+	private static CredentialRecord readStoredRecord() {
+		final byte[] data = readStoredFile();
+		if (data == null) {
+			// fail closed, an unreadable file is not "no lock"
+			return CORRUPT_RECORD;
+		}
+		if (data.length == 0) {
+			if (!sLockPatternFilename.exists()) {
+				return null;
+			}
+			// fail closed, only a missing file means there is no lock
+			Log.e(TAG, "Empty lock pattern file " + sLockPatternFilename);
+			return CORRUPT_RECORD;
+		}
+		if (CredentialRecord.hasHeader(data, 0, data.length)) {
+			final CredentialRecord record = CredentialRecord.parse(data, 0,
+					data.length);
+			if (record == null) {
+				Log.e(TAG, "Corrupt lock pattern file " + sLockPatternFilename);
+				return CORRUPT_RECORD;
+			}
+			return record;
+		}
+		// A bare hash, upgraded on the next successful check
+		final int kdfId = sPreferences.getInt(LOCK_PATTERN_KDF_KEY,
+				KeyDerivation.ID_SHA1);
+		final KeyDerivation kdf = KeyDerivation.forId(kdfId);
+		if (kdf == null) {
+			Log.e(TAG, "Unknown key derivation " + kdfId);
+		}
+		final String salt = sPreferences.getString(LOCK_PATTERN_SALT_KEY, null);
+		return CredentialRecord.legacy(PATTERN_SIZE_DEFAULT, kdf,
+				sPreferences.getInt(LOCK_PATTERN_COST_KEY, 1),
+				salt == null ? NO_STORED_HASH : Base64.decode(salt,
+						Base64.NO_WRAP), data);
+	}
+
+	/**
+	 * Read the whole lock pattern file in one go.
+	 * 
+	 * @return The file contents, an empty array if there is no file, or null
+	 *         if it exists but couldn't be read.
+	 */
+	private static byte[] readStoredFile() {
+		try {
+			return sLockPatternFile.readFully();
+		} catch (IOException ioe) {
+			Log.e(TAG, "Unable to read lock pattern from " + sLockPatternFilename);
+			return null;
+		}
 	}
 
 	public void clearLock() {
-		saveLockPattern(null);
+		saveLockPattern((PatternCode) null);
 	}
 	
 	public static byte getRowOrColCount() {
@@ -114,17 +317,50 @@ public class LockPatternUtils {
 	 * @return The pattern.
 	 */
 	public static List<LockPatternView.Cell> stringToPattern(String string) {
-		List<LockPatternView.Cell> result = new ArrayList<LockPatternView.Cell>();
+		return stringToPattern(string, PATTERN_SIZE_DEFAULT);
+	}
 
+	/**
+	 * Deserialize a pattern drawn on a grid of the given size.
+	 * 
+	 * @param string
+	 *            The pattern serialized with {@link #patternToString(List, byte)}
+	 * @param size
+	 *            The number of rows and columns of the grid.
+	 * @return The pattern.
+	 */
+	public static List<LockPatternView.Cell> stringToPattern(String string,
+			byte size) {
 		final byte[] bytes = string.getBytes();
+		final CellGrid grid = CellGrid.of(size);
+		List<LockPatternView.Cell> result = new ArrayList<LockPatternView.Cell>(
+				bytes.length);
 		for (int i = 0; i < bytes.length; i++) {
-			byte b = bytes[i];
-			result.add(LockPatternView.Cell.of(b / PATTERN_SIZE_DEFAULT, 
-					b % PATTERN_SIZE_DEFAULT, PATTERN_SIZE_NORMAL));
+			result.add(grid.cell(bytes[i]));
 		}
 		return result;
 	}
 
+	/**
+	 * Deserialize a pattern without building a list of cells.
+	 * 
+	 * @param string
+	 *            The pattern serialized with {@link #patternToString}
+	 * @return The packed pattern.
+	 */
+	public static PatternCode stringToPatternCode(String string) {
+		final int length = string.length();
+		long cells = 0L;
+		for (int i = 0; i < length; i++) {
+			final char index = string.charAt(i);
+			if (index >= PatternCode.MAX_LENGTH) {
+				throw new IllegalArgumentException("invalid serialized pattern");
+			}
+			cells = PatternCode.append(cells, i, index);
+		}
+		return PatternCode.of(cells, length);
+	}
+
 	/**
 	 * Serialize a pattern. 加密
 	 * 
@@ -133,6 +369,20 @@ public class LockPatternUtils {
 	 * @return The pattern in string form.
 	 */
 	public static String patternToString(List<LockPatternView.Cell> pattern) {
+		return patternToString(pattern, PATTERN_SIZE_DEFAULT);
+	}
+
+	/**
+	 * Serialize a pattern drawn on a grid of the given size.
+	 * 
+	 * @param pattern
+	 *            The pattern.
+	 * @param size
+	 *            The number of rows and columns of the grid.
+	 * @return The pattern in string form.
+	 */
+	public static String patternToString(List<LockPatternView.Cell> pattern,
+			byte size) {
 		if (pattern == null) {
 			return "";
 		}
@@ -141,11 +391,27 @@ public class LockPatternUtils {
 		byte[] res = new byte[patternSize];
 		for (int i = 0; i < patternSize; i++) {
 			LockPatternView.Cell cell = pattern.get(i);
-			res[i] = (byte) (cell.getRow() * PATTERN_SIZE_DEFAULT + cell.getColumn());
+			res[i] = (byte) (cell.getRow() * size + cell.getColumn());
 		}
 		return new String(res);
 	}
 
+	/**
+	 * Serialize a packed pattern.
+	 * 
+	 * @param code
+	 *            The pattern.
+	 * @return The pattern in string form.
+	 */
+	public static String patternToString(PatternCode code) {
+		if (code == null) {
+			return "";
+		}
+		byte[] res = new byte[code.size()];
+		code.toBytes(res, 0);
+		return new String(res);
+	}
+
 	/**
 	 * Save a lock pattern.
 	 * 
@@ -155,55 +421,104 @@ public class LockPatternUtils {
 	 *            Specifies if this is a fallback to biometric weak
 	 */
 	public void saveLockPattern(List<LockPatternView.Cell> pattern) {
-		// Compute the hash
-		final byte[] hash = LockPatternUtils.patternToHash(pattern);
-		try {
-			// Write the hash to file
-			RandomAccessFile raf = new RandomAccessFile(sLockPatternFilename,
-					"rwd");
-			// Truncate the file if pattern is null, to clear the lock
-			if (pattern == null) {
-				raf.setLength(0);
-			} else {
-				raf.write(hash, 0, hash.length);
-			}
-			raf.close();
-		} catch (FileNotFoundException fnfe) {
-			// Cant do much, unless we want to fail over to using the settings
-			// provider
-			Log.e(TAG, "Unable to save lock pattern to " + sLockPatternFilename);
-		} catch (IOException ioe) {
-			// Cant do much
-			Log.e(TAG, "Unable to save lock pattern to " + sLockPatternFilename);
+		saveLockPattern(PatternCode.of(pattern));
+	}
+
+	/**
+	 * Save a lock pattern. Derives the hash, which takes about
+	 * {@link #DEFAULT_VERIFY_MILLIS} and more the first time, so prefer
+	 * {@link #saveLockPatternAsync} on the main thread.
+	 * 
+	 * @param pattern
+	 *            The new pattern to save, or null to clear the lock.
+	 */
+	public void saveLockPattern(PatternCode pattern) {
+		synchronized (sWriteLock) {
+			writeLockPattern(pattern);
 		}
 	}
 
-	/*
-	 * Generate an SHA-1 hash for the pattern. Not the most secure, but it is at
-	 * least a second level of protection. First level is that the file is in a
-	 * location only readable by the system process.
+	/**
+	 * Save a lock pattern on a background thread, so that deriving its hash
+	 * never blocks the UI. The pattern is packed before this method returns,
+	 * so the caller may keep modifying its list.
 	 * 
-	 * @param pattern the gesture pattern.
+	 * @param pattern
+	 *            The new pattern to save.
+	 * @param listener
+	 *            Receives the result on the main thread.
+	 */
+	public void saveLockPatternAsync(List<LockPatternView.Cell> pattern,
+			OnSavePatternListener listener) {
+		saveLockPatternAsync(PatternCode.of(pattern), listener);
+	}
+
+	/**
+	 * Save a packed lock pattern on a background thread.
 	 * 
-	 * @return the hash of the pattern in a byte array.
+	 * @param pattern
+	 *            The new pattern to save.
+	 * @param listener
+	 *            Receives the result on the main thread.
 	 */
-	private static byte[] patternToHash(List<LockPatternView.Cell> pattern) {
-		if (pattern == null) {
-			return null;
-		}
+	public void saveLockPatternAsync(final PatternCode pattern,
+			final OnSavePatternListener listener) {
+		final Handler mainHandler = getMainHandler();
+		getCheckExecutor().execute(new Runnable() {
+			public void run() {
+				final boolean saved;
+				synchronized (sWriteLock) {
+					saved = writeLockPattern(pattern);
+				}
+				mainHandler.post(new Runnable() {
+					public void run() {
+						listener.onPatternSaved(saved);
+					}
+				});
+			}
+		});
+	}
 
-		final int patternSize = pattern.size();
-		byte[] res = new byte[patternSize];
-		for (int i = 0; i < patternSize; i++) {
-			LockPatternView.Cell cell = pattern.get(i);
-			res[i] = (byte) (cell.getRow() * PATTERN_SIZE_DEFAULT + cell.getColumn());
+	/**
+	 * @return Whether the file now holds pattern. Call with
+	 *         {@link #sWriteLock} held.
+	 */
+	private static boolean writeLockPattern(PatternCode pattern) {
+		if (pattern == null) {
+			// Deleting is atomic, clear the lock that way
+			if (sLockPatternFile.delete()) {
+				sStoredRecord = null;
+				sPreferences.edit().remove(LOCK_PATTERN_KDF_KEY)
+						.remove(LOCK_PATTERN_COST_KEY)
+						.remove(LOCK_PATTERN_SALT_KEY).commit();
+				return true;
+			}
+			Log.e(TAG, "Unable to clear lock pattern " + sLockPatternFilename);
+			return false;
 		}
+		// Compute the hash
+		final KeyDerivation kdf = sKeyDerivation;
+		final int cost = getCalibratedCost(kdf);
+		final byte[] salt = new byte[KeyDerivation.SALT_LENGTH];
+		new SecureRandom().nextBytes(salt);
+		final CredentialRecord record = CredentialRecord.create(
+				PATTERN_SIZE_DEFAULT, kdf, cost, salt,
+				kdf.derive(pattern, salt, cost));
+		final byte[] data = record.toByteArray();
 		try {
-			MessageDigest md = MessageDigest.getInstance("SHA-1");
-			byte[] hash = md.digest(res);
-			return hash;
-		} catch (NoSuchAlgorithmException nsa) {
-			return res;
+			// Write the record to a new file and swap it in
+			sLockPatternFile.write(data, 0, data.length);
+			// Publish right away rather than waiting for the file observer
+			sStoredRecord = record;
+			// The parameters live in the file header now
+			sPreferences.edit().remove(LOCK_PATTERN_KDF_KEY)
+					.remove(LOCK_PATTERN_COST_KEY)
+					.remove(LOCK_PATTERN_SALT_KEY).commit();
+			return true;
+		} catch (IOException ioe) {
+			// Cant do much
+			Log.e(TAG, "Unable to save lock pattern to " + sLockPatternFilename);
+			return false;
 		}
 	}
 
@@ -216,23 +531,108 @@ public class LockPatternUtils {
 	 * @return Whether the pattern matches the stored one.
 	 */
 	public boolean checkPattern(List<LockPatternView.Cell> pattern) {
-		try {
-			// Read all the bytes from the file
-			RandomAccessFile raf = new RandomAccessFile(sLockPatternFilename,
-					"r");
-			final byte[] stored = new byte[(int) raf.length()];
-			int got = raf.read(stored, 0, stored.length);
-			raf.close();
-			if (got <= 0) {
-				return true;
-			}
-			// Compare the hash from the file with the entered pattern's hash
-			return Arrays.equals(stored,
-					LockPatternUtils.patternToHash(pattern));
-		} catch (FileNotFoundException fnfe) {
-			return true;
-		} catch (IOException ioe) {
+		return checkPattern(PatternCode.of(pattern));
+	}
+
+	/**
+	 * Check to see if a packed pattern matches the saved pattern. If no
+	 * pattern exists, always returns true.
+	 * 
+	 * @param pattern
+	 *            The pattern to check.
+	 * @return Whether the pattern matches the stored one.
+	 */
+	public boolean checkPattern(final PatternCode pattern) {
+		final CredentialRecord stored = sStoredRecord;
+		if (stored == null) {
 			return true;
 		}
+		// Compare the stored hash with the entered pattern's hash
+		final boolean matched = stored.verify(pattern);
+		if (matched && stored.isLegacy()) {
+			// the rewrite derives a new hash and syncs the file, keep it off
+			// the caller's thread
+			getCheckExecutor().execute(new Runnable() {
+				public void run() {
+					upgradeLegacyRecord(stored, pattern);
+				}
+			});
+		}
+		return matched;
+	}
+
+	/**
+	 * Rewrite a legacy record in the current format, unless the pattern was
+	 * saved or cleared since it was checked. Runs on the check executor.
+	 */
+	private static void upgradeLegacyRecord(CredentialRecord legacy,
+			PatternCode pattern) {
+		synchronized (sWriteLock) {
+			if (sStoredRecord != legacy) {
+				return;
+			}
+			Log.d(TAG, "Upgrading lock pattern file");
+			writeLockPattern(pattern);
+		}
+	}
+
+	/**
+	 * Check a pattern against the saved pattern on a background thread, so
+	 * that hashing never blocks the UI. The pattern is packed before this
+	 * method returns, so the caller may keep modifying its list.
+	 * 
+	 * @param pattern
+	 *            The pattern to check.
+	 * @param listener
+	 *            Receives the result on the main thread.
+	 */
+	public void checkPatternAsync(List<LockPatternView.Cell> pattern,
+			OnCheckPatternListener listener) {
+		checkPatternAsync(PatternCode.of(pattern), listener);
+	}
+
+	/**
+	 * Check a packed pattern against the saved pattern on a background
+	 * thread.
+	 * 
+	 * @param pattern
+	 *            The pattern to check.
+	 * @param listener
+	 *            Receives the result on the main thread.
+	 */
+	public void checkPatternAsync(final PatternCode pattern,
+			final OnCheckPatternListener listener) {
+		final Handler mainHandler = getMainHandler();
+		getCheckExecutor().execute(new Runnable() {
+			public void run() {
+				final boolean matched = checkPattern(pattern);
+				mainHandler.post(new Runnable() {
+					public void run() {
+						listener.onPatternChecked(matched);
+					}
+				});
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getCheckExecutor() {
+		if (sCheckExecutor == null) {
+			sCheckExecutor = Executors
+					.newSingleThreadExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, TAG + "-check");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return sCheckExecutor;
+	}
+
+	private static synchronized Handler getMainHandler() {
+		if (sMainHandler == null) {
+			sMainHandler = new Handler(Looper.getMainLooper());
+		}
+		return sMainHandler;
 	}
 }
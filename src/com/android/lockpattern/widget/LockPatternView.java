@@ -2,19 +2,19 @@ package com.android.lockpattern.widget;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
-import android.os.Debug;
+import android.os.Build;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.HapticFeedbackConstants;
@@ -36,8 +36,16 @@ public class LockPatternView extends View {
     private static final int ASPECT_LOCK_WIDTH = 1; // Fixed width; height will be minimum of (w,h)
     private static final int ASPECT_LOCK_HEIGHT = 2; // Fixed height; width will be minimum of (w,h)
 
-    private static final boolean PROFILE_DRAWING = false;
-    private boolean mDrawingProfilingStarted = false;
+    /** frame times and input latencies, always recorded */
+    private final LockPatternMetrics mMetrics = new LockPatternMetrics();
+    /** uptime of the ACTION_UP still waiting for a verdict, or -1 */
+    private long mVerdictPendingSince = -1;
+
+    private static final int[] CIRCLE_RESOURCES = {
+            R.drawable.gesture_pattern_item_bg,
+            R.drawable.gesture_pattern_selected,
+            R.drawable.gesture_pattern_selected_wrong
+    };
 
     private Paint mPaint = new Paint();
     private Paint mPathPaint = new Paint();
@@ -49,7 +57,14 @@ public class LockPatternView extends View {
      */
     private static final int MILLIS_PER_CIRCLE_ANIMATING = 700;
 
+    /**
+     * Frame interval for the animation where frame callbacks aren't
+     * available, before Jelly Bean.
+     */
+    private static final long FALLBACK_FRAME_DELAY = 16;
+
     private byte mPatternSize = LockPatternUtils.getRowOrColCount();
+    private CellGrid mGrid = CellGrid.of(mPatternSize);
 
     /**
      * This can be used to avoid updating the display for very small motions or noisy panels.
@@ -58,7 +73,10 @@ public class LockPatternView extends View {
     private static final float DRAG_THRESHHOLD = 0.0f;
 
     private OnPatternListener mOnPatternListener;
+    private OnPatternDeltaListener mOnPatternDeltaListener;
     private ArrayList<Cell> mPattern = new ArrayList<Cell>(mPatternSize * mPatternSize);
+    /** read-only view of mPattern, handed out instead of copies */
+    private List<Cell> mPatternView = Collections.unmodifiableList(mPattern);
 
     /**
      * Lookup table for the circles of the pattern we are currently drawing.
@@ -76,7 +94,67 @@ public class LockPatternView extends View {
     private float mInProgressX = -1;
     private float mInProgressY = -1;
 
+    /** turns touch samples into the pattern, this view mirrors and draws it */
+    private final PatternInputEngine mEngine = new PatternInputEngine(mPatternSize);
+    /** records what is fed to mEngine, null unless tracing */
+    private TouchTraceRecorder mTraceRecorder;
+
+    private final PatternInputEngine.Listener mInputListener = new PatternInputEngine.Listener() {
+        public void onPatternStart() {
+            mPatternInProgress = true;
+            mPatternDisplayMode = DisplayMode.Correct;
+            notifyPatternStarted();
+        }
+
+        public void onPatternCleared() {
+            if (!mPattern.isEmpty()) {
+                // reset first, so the in progress segment is redrawn too
+                resetPattern();
+            }
+            mPatternInProgress = false;
+            notifyPatternCleared();
+        }
+
+        public void onCellAdded(int position, int index, boolean gap, long time) {
+            final Cell cell = mGrid.cell(index);
+            mPatternDrawLookup[cell.row][cell.column] = true;
+            mPattern.add(cell);
+            notifyCellAdded(time);
+            if (!gap && mEnableHapticFeedback) {
+                performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY,
+                        HapticFeedbackConstants.FLAG_IGNORE_VIEW_SETTING
+                        | HapticFeedbackConstants.FLAG_IGNORE_GLOBAL_SETTING);
+            }
+        }
+
+        public void onPatternDetected(long time) {
+            // the in progress segment goes away
+            invalidatePattern();
+            mPatternInProgress = false;
+            // the listener may give its verdict right away
+            mVerdictPendingSince = time;
+            notifyPatternDetected();
+        }
+    };
+
     private long mAnimatingPeriodStart;
+    /** how many cells the animation currently shows */
+    private int mAnimatedCount;
+    /** minimum milliseconds between animation frames, 0 for every frame */
+    private long mAnimationFrameDelay;
+    private boolean mAnimationScheduled;
+    private boolean mAttached;
+    private final Rect mAnimationDirty = new Rect();
+
+    private final Runnable mAnimationFrame = new Runnable() {
+        public void run() {
+            mAnimationScheduled = false;
+            if (mPatternDisplayMode == DisplayMode.Animate) {
+                updateAnimation();
+                schedulePatternAnimation();
+            }
+        }
+    };
 
     private DisplayMode mPatternDisplayMode = DisplayMode.Correct;
     private boolean mInputEnabled = true;
@@ -93,11 +171,16 @@ public class LockPatternView extends View {
     private float mSquareWidth;
     private float mSquareHeight;
 
+    /** the unselected circles of the whole grid, drawn once per layout */
+    private Bitmap mGridLayer;
+
     private Bitmap mBitmapCircleDefault;
     private Bitmap mBitmapCircleGreen;
     private Bitmap mBitmapCircleRed;
 
+    /** the segments between the first mPathCellCount cells of the pattern */
     private final Path mCurrentPath = new Path();
+    private int mPathCellCount;
     private final Rect mInvalidate = new Rect();
     private final Rect mTmpInvalidateRect = new Rect();
 
@@ -105,7 +188,20 @@ public class LockPatternView extends View {
     private int mBitmapHeight;
 
     private int mAspect;
-    private final Matrix mCircleMatrix = new Matrix();
+    /**
+     * Geometry of each row and column, rebuilt when the size, padding or
+     * grid size changes: the center of the cells and where their circle
+     * bitmaps are drawn.
+     */
+    private float[] mCenterX = new float[mPatternSize];
+    private float[] mCenterY = new float[mPatternSize];
+    private float[] mCircleLeft = new float[mPatternSize];
+    private float[] mCircleTop = new float[mPatternSize];
+    /** the padding the geometry was last computed for */
+    private int mGeometryPaddingLeft;
+    private int mGeometryPaddingTop;
+    private int mGeometryPaddingRight;
+    private int mGeometryPaddingBottom;
 
     /**
      * Represents a cell in the matrix of the unlock pattern view.
@@ -114,17 +210,11 @@ public class LockPatternView extends View {
         int row;
         int column;
 
-        // keep # objects limited
-        static Cell[][] sCells;
-        static {
-            updateSize(LockPatternUtils.getRowOrColCount());
-        }
-
         /**
          * @param row The row of the cell.
          * @param column The column of the cell.
          */
-        private Cell(int row, int column, byte size) {
+        Cell(int row, int column, byte size) {
             checkRange(row, column, size);
             this.row = row;
             this.column = column;
@@ -141,30 +231,29 @@ public class LockPatternView extends View {
         /**
          * @param row The row of the cell.
          * @param column The column of the cell.
+         * @return The cell of the default grid size.
          */
-        public static synchronized Cell of(int row, int column) {
-			byte size = (byte) (LockPatternUtils.getRowOrColCount()
-					* LockPatternUtils.getRowOrColCount());
-            checkRange(row, column, size);
-            return sCells[row][column];
+        public static Cell of(int row, int column) {
+            return CellGrid.of(LockPatternUtils.getRowOrColCount()).cell(row, column);
         }
         
         /**
          * @param row The row of the cell.
          * @param column The column of the cell.
+         * @param size The number of rows and columns of the grid.
          */
-        public static synchronized Cell of(int row, int column, byte size) {
-            checkRange(row, column, size);
-            return sCells[row][column];
+        public static Cell of(int row, int column, byte size) {
+            return CellGrid.of(size).cell(row, column);
         }
 
+        /**
+         * @deprecated Every grid size has its own cells now, see
+         *             {@link CellGrid}; this only checks that size is
+         *             supported.
+         */
+        @Deprecated
         public static void updateSize(byte size) {
-            sCells = new Cell[size][size];
-            for (int i = 0; i < size; i++) {
-                for (int j = 0; j < size; j++) {
-                    sCells[i][j] = new Cell(i, j, size);
-                }
-            }
+            CellGrid.of(size);
         }
 
         private static void checkRange(int row, int column, byte size) {
@@ -176,6 +265,24 @@ public class LockPatternView extends View {
             }
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Cell)) {
+                return false;
+            }
+            final Cell other = (Cell) o;
+            return row == other.row && column == other.column;
+        }
+
+        @Override
+        public int hashCode() {
+            // rows and columns are below 16 for every supported grid size
+            return row << 4 | column;
+        }
+
         public String toString() {
             return "(row=" + row + ",clmn=" + column + ")";
         }
@@ -230,12 +337,29 @@ public class LockPatternView extends View {
         void onPatternDetected(List<Cell> pattern);
     }
 
+    /**
+     * The interface for getting each cell as it is added, rather than the
+     * whole pattern, so keeping up with a pattern costs the same for every
+     * cell however long it gets.
+     */
+    public static interface OnPatternDeltaListener {
+
+        /**
+         * The user extended the pattern currently being drawn by one cell.
+         * @param index The position of the cell in the pattern, 0 for the
+         *        first cell of a new pattern.
+         * @param cell The cell.
+         */
+        void onPatternCellAdded(int index, Cell cell);
+    }
+
     public LockPatternView(Context context) {
         this(context, null);
     }
 
     public LockPatternView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        mEngine.setListener(mInputListener);
 
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.LockPatternView);
 
@@ -261,25 +385,17 @@ public class LockPatternView extends View {
         mPathPaint.setStrokeJoin(Paint.Join.ROUND);
         mPathPaint.setStrokeCap(Paint.Cap.ROUND);
 
-        // lot's of bitmaps!
-		mBitmapCircleDefault = getBitmapFor(R.drawable.gesture_pattern_item_bg);
-		mBitmapCircleGreen = getBitmapFor(R.drawable.gesture_pattern_selected);
-		mBitmapCircleRed = getBitmapFor(R.drawable.gesture_pattern_selected_wrong);
-
+        // lot's of bitmaps! Only their sizes are needed until layout, the
+        // bitmaps come from the shared cache already scaled to the cells.
         // bitmaps have the size of the largest bitmap in this group
-        final Bitmap bitmaps[] = { mBitmapCircleDefault,
-                mBitmapCircleGreen, mBitmapCircleRed };
-
-        for (Bitmap bitmap : bitmaps) {
-            mBitmapWidth = Math.max(mBitmapWidth, bitmap.getWidth());
-            mBitmapHeight = Math.max(mBitmapHeight, bitmap.getHeight());
+        final int[] size = new int[2];
+        for (int resId : CIRCLE_RESOURCES) {
+            PatternBitmapCache.getSize(getResources(), resId, size);
+            mBitmapWidth = Math.max(mBitmapWidth, size[0]);
+            mBitmapHeight = Math.max(mBitmapHeight, size[1]);
         }
     }
 
-    private Bitmap getBitmapFor(int resId) {
-        return BitmapFactory.decodeResource(getContext().getResources(), resId);
-    }
-
     /**
      * @return Whether the view is in stealth mode.
      */
@@ -341,12 +457,22 @@ public class LockPatternView extends View {
      * Set the pattern size of the lockscreen
      *
      * @param size The pattern size.
+     * @throws IllegalArgumentException If size is above
+     *         {@link PatternCode#GRID_SIZE}: patterns are checked and saved
+     *         packed, which only fits grids up to that size.
      */
     public void setLockPatternSize(byte size) {
+        if (size < 1 || size > PatternCode.GRID_SIZE) {
+            throw new IllegalArgumentException("pattern size must be in range 1-"
+                    + PatternCode.GRID_SIZE);
+        }
+        mGrid = CellGrid.of(size);
         mPatternSize = size;
-        Cell.updateSize(size);
         mPattern = new ArrayList<Cell>(size * size);
+        mPatternView = Collections.unmodifiableList(mPattern);
         mPatternDrawLookup = new boolean[size][size];
+        mEngine.setGridSize(size);
+        updateGeometry(getWidth(), getHeight());
     }
 
     /**
@@ -358,6 +484,24 @@ public class LockPatternView extends View {
         mOnPatternListener = onPatternListener;
     }
 
+    /**
+     * Set the call back for each cell added to the pattern. It is called
+     * along with {@link OnPatternListener#onPatternCellAdded}.
+     * @param onPatternDeltaListener The call back.
+     */
+    public void setOnPatternDeltaListener(
+            OnPatternDeltaListener onPatternDeltaListener) {
+        mOnPatternDeltaListener = onPatternDeltaListener;
+    }
+
+    /**
+     * @return A read-only view of the current pattern. It is not a copy: it
+     *         follows the pattern as it changes, so copy it to keep it.
+     */
+    public List<Cell> getPattern() {
+        return mPatternView;
+    }
+
     /**
      * Set the pattern explicitely (rather than waiting for the user to input
      * a pattern).
@@ -365,7 +509,9 @@ public class LockPatternView extends View {
      * @param pattern The pattern.
      */
     public void setPattern(DisplayMode displayMode, List<Cell> pattern) {
+        invalidatePattern();
         mPattern.clear();
+        invalidatePath();
         mPattern.addAll(pattern);
         clearPatternDrawLookup();
         for (Cell cell : pattern) {
@@ -375,6 +521,33 @@ public class LockPatternView extends View {
         setDisplayMode(displayMode);
     }
 
+    /**
+     * Set a packed pattern explicitely.
+     * @param displayMode How to display the pattern.
+     * @param pattern The pattern.
+     */
+    public void setPattern(DisplayMode displayMode, PatternCode pattern) {
+        invalidatePattern();
+        mPattern.clear();
+        invalidatePath();
+        clearPatternDrawLookup();
+        final int count = pattern.size();
+        for (int i = 0; i < count; i++) {
+            final Cell cell = pattern.cellAt(i);
+            mPattern.add(cell);
+            mPatternDrawLookup[cell.getRow()][cell.getColumn()] = true;
+        }
+
+        setDisplayMode(displayMode);
+    }
+
+    /**
+     * @return The current pattern, packed.
+     */
+    public PatternCode getPatternCode() {
+        return PatternCode.of(mPattern);
+    }
+
     /**
      * Set the display mode of the current pattern.  This can be useful, for
      * instance, after detecting a pattern to tell this view whether change the
@@ -382,6 +555,9 @@ public class LockPatternView extends View {
      * @param displayMode The display mode.
      */
     public void setDisplayMode(DisplayMode displayMode) {
+        recordVerdict();
+        // only the pattern changes color, or the in progress segment moves
+        invalidatePattern();
         mPatternDisplayMode = displayMode;
         if (displayMode == DisplayMode.Animate) {
             if (mPattern.size() == 0) {
@@ -392,15 +568,214 @@ public class LockPatternView extends View {
             final Cell first = mPattern.get(0);
             mInProgressX = getCenterXForColumn(first.getColumn());
             mInProgressY = getCenterYForRow(first.getRow());
+            mAnimatedCount = 0;
+            clearPatternDrawLookup();
+            schedulePatternAnimation();
+        } else {
+            stopPatternAnimation();
+        }
+        invalidatePattern();
+    }
+
+    /**
+     * Invalidate what the current pattern covers: its cells, the segments
+     * between them and, while it is being drawn or animated, the segment to
+     * the in progress point. Call it before and after a change to redraw
+     * both states.
+     */
+    private void invalidatePattern() {
+        final ArrayList<Cell> pattern = mPattern;
+        final int count = pattern.size();
+        if (count == 0) {
+            return;
+        }
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            final Cell cell = pattern.get(i);
+            final float centerX = mCenterX[cell.column];
+            final float centerY = mCenterY[cell.row];
+            left = Math.min(left, centerX);
+            top = Math.min(top, centerY);
+            right = Math.max(right, centerX);
+            bottom = Math.max(bottom, centerY);
+        }
+        if (mPatternInProgress || mPatternDisplayMode == DisplayMode.Animate) {
+            left = Math.min(left, mInProgressX);
+            top = Math.min(top, mInProgressY);
+            right = Math.max(right, mInProgressX);
+            bottom = Math.max(bottom, mInProgressY);
+        }
+        // a whole square around each center covers circles and stroke width
+        final float halfWidth = mSquareWidth * 0.5f;
+        final float halfHeight = mSquareHeight * 0.5f;
+        invalidate((int) Math.floor(left - halfWidth), (int) Math.floor(top - halfHeight),
+                (int) Math.ceil(right + halfWidth), (int) Math.ceil(bottom + halfHeight));
+    }
+
+    /**
+     * Limit the frame rate of {@link DisplayMode#Animate}, e.g. to save power
+     * on screens that show the animation for a long time.
+     *
+     * @param framesPerSecond The most frames to draw per second, or 0 to draw
+     *        on every display frame.
+     */
+    public void setAnimationFrameRate(int framesPerSecond) {
+        if (framesPerSecond < 0) {
+            throw new IllegalArgumentException("framesPerSecond must not be negative");
+        }
+        mAnimationFrameDelay = framesPerSecond == 0 ? 0 : 1000 / framesPerSecond;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        schedulePatternAnimation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mAttached = false;
+        stopPatternAnimation();
+        // redrawn on demand if the view comes back
+        releaseGridLayer();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (isShown()) {
+            schedulePatternAnimation();
+        } else {
+            stopPatternAnimation();
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE) {
+            schedulePatternAnimation();
+        } else {
+            stopPatternAnimation();
+        }
+    }
+
+    /**
+     * Ask for the next animation frame, if animating and on screen. Frames
+     * follow the display's vsync where frame callbacks are available.
+     */
+    private void schedulePatternAnimation() {
+        if (mAnimationScheduled || mPatternDisplayMode != DisplayMode.Animate
+                || !mAttached || getWindowVisibility() != VISIBLE || !isShown()) {
+            return;
+        }
+        mAnimationScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mAnimationFrameDelay > 0) {
+                postOnAnimationDelayed(mAnimationFrame, mAnimationFrameDelay);
+            } else {
+                postOnAnimation(mAnimationFrame);
+            }
+        } else {
+            postDelayed(mAnimationFrame, Math.max(mAnimationFrameDelay, FALLBACK_FRAME_DELAY));
+        }
+    }
+
+    private void stopPatternAnimation() {
+        if (mAnimationScheduled) {
+            removeCallbacks(mAnimationFrame);
+            mAnimationScheduled = false;
+        }
+    }
+
+    /**
+     * Advance the animation to the current time and invalidate what changed:
+     * cells lit since the last frame and the moving segment.
+     */
+    private void updateAnimation() {
+        final ArrayList<Cell> pattern = mPattern;
+        final int count = pattern.size();
+
+        // + 1 so we pause on complete pattern
+        final int oneCycle = (count + 1) * MILLIS_PER_CIRCLE_ANIMATING;
+        final int spotInCycle = (int) (SystemClock.elapsedRealtime() -
+                mAnimatingPeriodStart) % oneCycle;
+        final int numCircles = spotInCycle / MILLIS_PER_CIRCLE_ANIMATING;
+
+        final Rect dirty = mAnimationDirty;
+        dirty.setEmpty();
+        if (numCircles < mAnimatedCount) {
+            // a new cycle started, everything goes dark again
+            invalidatePattern();
             clearPatternDrawLookup();
+            mAnimatedCount = 0;
+        } else if (mAnimatedCount > 0) {
+            unionSegment(dirty, pattern.get(mAnimatedCount - 1), mInProgressX, mInProgressY);
+        }
+        for (int i = mAnimatedCount; i < numCircles; i++) {
+            final Cell cell = pattern.get(i);
+            mPatternDrawLookup[cell.getRow()][cell.getColumn()] = true;
+            unionSegment(dirty, cell, getCenterXForColumn(cell.column),
+                    getCenterYForRow(cell.row));
+        }
+        mAnimatedCount = numCircles;
+
+        // figure out in progress portion of ghosting line
+        if (numCircles > 0 && numCircles < count) {
+            final float percentageOfNextCircle =
+                    ((float) (spotInCycle % MILLIS_PER_CIRCLE_ANIMATING)) /
+                            MILLIS_PER_CIRCLE_ANIMATING;
+
+            final Cell currentCell = pattern.get(numCircles - 1);
+            final float centerX = getCenterXForColumn(currentCell.column);
+            final float centerY = getCenterYForRow(currentCell.row);
+
+            final Cell nextCell = pattern.get(numCircles);
+            final float dx = percentageOfNextCircle *
+                    (getCenterXForColumn(nextCell.column) - centerX);
+            final float dy = percentageOfNextCircle *
+                    (getCenterYForRow(nextCell.row) - centerY);
+            mInProgressX = centerX + dx;
+            mInProgressY = centerY + dy;
+            unionSegment(dirty, currentCell, mInProgressX, mInProgressY);
+        }
+        if (!dirty.isEmpty()) {
+            invalidate(dirty);
         }
-        invalidate();
     }
 
-    private void notifyCellAdded() {
+    /**
+     * Grow dirty to cover the square of cell and a path segment from its
+     * center to x, y.
+     */
+    private void unionSegment(Rect dirty, Cell cell, float x, float y) {
+        final float centerX = getCenterXForColumn(cell.column);
+        final float centerY = getCenterYForRow(cell.row);
+        final float halfWidth = mSquareWidth * 0.5f;
+        final float halfHeight = mSquareHeight * 0.5f;
+        // the stroke is narrower than this, see onDraw()
+        final float radius = mSquareWidth * mDiameterFactor * 0.5f;
+        dirty.union((int) Math.floor(Math.min(centerX - halfWidth, x - radius)),
+                (int) Math.floor(Math.min(centerY - halfHeight, y - radius)),
+                (int) Math.ceil(Math.max(centerX + halfWidth, x + radius)),
+                (int) Math.ceil(Math.max(centerY + halfHeight, y + radius)));
+    }
+
+    private void notifyCellAdded(long sampleTime) {
+        mMetrics.record(LockPatternMetrics.CELL_ADDED,
+                (SystemClock.uptimeMillis() - sampleTime) * 1000000L);
         sendAccessEvent(R.string.lockscreen_access_pattern_cell_added);
+        if (mOnPatternDeltaListener != null) {
+            final int index = mPattern.size() - 1;
+            mOnPatternDeltaListener.onPatternCellAdded(index, mPattern.get(index));
+        }
         if (mOnPatternListener != null) {
-            mOnPatternListener.onPatternCellAdded(mPattern);
+            mOnPatternListener.onPatternCellAdded(mPatternView);
         }
     }
 
@@ -414,7 +789,7 @@ public class LockPatternView extends View {
     private void notifyPatternDetected() {
         sendAccessEvent(R.string.lockscreen_access_pattern_detected);
         if (mOnPatternListener != null) {
-            mOnPatternListener.onPatternDetected(mPattern);
+            mOnPatternListener.onPatternDetected(mPatternView);
         }
     }
 
@@ -429,17 +804,76 @@ public class LockPatternView extends View {
      * Clear the pattern.
      */
     public void clearPattern() {
+        recordVerdict();
         resetPattern();
     }
 
+    /**
+     * @return The view's frame times and input latencies, for telemetry to
+     *         poll.
+     */
+    public LockPatternMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Record the touch samples this view processes, e.g. to reproduce a
+     * problem with {@link TouchTraceReplayer}.
+     * @param recorder The recorder, or null to stop recording.
+     */
+    public void setTouchTraceRecorder(TouchTraceRecorder recorder) {
+        mTraceRecorder = recorder;
+        recordTraceGeometry();
+    }
+
+    private void recordTraceGeometry() {
+        if (mTraceRecorder != null) {
+            mTraceRecorder.geometry(mPatternSize, getPaddingLeft(), getPaddingTop(),
+                    mSquareWidth, mSquareHeight, getHitRadius());
+        }
+    }
+
+    private void recordTrace(MotionEvent event) {
+        final int action = event.getAction();
+        if (action < TouchTraceRecorder.DOWN || action > TouchTraceRecorder.CANCEL) {
+            return;
+        }
+        final int historySize = action == MotionEvent.ACTION_MOVE ? event.getHistorySize() : 0;
+        if (!mTraceRecorder.beginEvent(action, historySize + 1)) {
+            return;
+        }
+        for (int i = 0; i < historySize; i++) {
+            mTraceRecorder.sample(event.getHistoricalEventTime(i), event.getHistoricalX(i),
+                    event.getHistoricalY(i));
+        }
+        mTraceRecorder.sample(event.getEventTime(), event.getX(), event.getY());
+    }
+
+    private float getHitRadius() {
+        return Math.min(mSquareWidth, mSquareHeight) * mHitFactor / 2f;
+    }
+
+    /**
+     * Record the latency of the first response to a detected pattern.
+     */
+    private void recordVerdict() {
+        if (mVerdictPendingSince >= 0) {
+            mMetrics.record(LockPatternMetrics.VERDICT,
+                    (SystemClock.uptimeMillis() - mVerdictPendingSince) * 1000000L);
+            mVerdictPendingSince = -1;
+        }
+    }
+
     /**
      * Reset all pattern state.
      */
     private void resetPattern() {
+        invalidatePattern();
         mPattern.clear();
+        mEngine.clear();
+        invalidatePath();
         clearPatternDrawLookup();
         mPatternDisplayMode = DisplayMode.Correct;
-        invalidate();
     }
 
     /**
@@ -470,11 +904,139 @@ public class LockPatternView extends View {
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        updateGeometry(w, h);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        // a padding change requests a layout but doesn't change the size.
+        // Not caught in setPadding(), the View constructor calls that before
+        // the fields here are initialized.
+        if (getPaddingLeft() != mGeometryPaddingLeft || getPaddingTop() != mGeometryPaddingTop
+                || getPaddingRight() != mGeometryPaddingRight
+                || getPaddingBottom() != mGeometryPaddingBottom) {
+            updateGeometry(getWidth(), getHeight());
+        }
+    }
+
+    private void updateGeometry(int w, int h) {
+        mGeometryPaddingLeft = getPaddingLeft();
+        mGeometryPaddingTop = getPaddingTop();
+        mGeometryPaddingRight = getPaddingRight();
+        mGeometryPaddingBottom = getPaddingBottom();
         final int width = w - getPaddingLeft() - getPaddingRight();
         mSquareWidth = width / (float) mPatternSize;
 
         final int height = h - getPaddingTop() - getPaddingBottom();
         mSquareHeight = height / (float) mPatternSize;
+
+        mEngine.setGeometry(getPaddingLeft(), getPaddingTop(), mSquareWidth, mSquareHeight,
+                getHitRadius());
+        recordTraceGeometry();
+
+        // Allow circles to shrink if the view is too small to hold them.
+        final float sx = Math.min(mSquareWidth / mBitmapWidth, 1.0f);
+        final float sy = Math.min(mSquareHeight / mBitmapHeight, 1.0f);
+        if (sx > 0f && sy > 0f) {
+            final Resources res = getResources();
+            mBitmapCircleDefault = PatternBitmapCache.get(res,
+                    R.drawable.gesture_pattern_item_bg, sx, sy);
+            mBitmapCircleGreen = PatternBitmapCache.get(res,
+                    R.drawable.gesture_pattern_selected, sx, sy);
+            mBitmapCircleRed = PatternBitmapCache.get(res,
+                    R.drawable.gesture_pattern_selected_wrong, sx, sy);
+        } else {
+            mBitmapCircleDefault = null;
+            mBitmapCircleGreen = null;
+            mBitmapCircleRed = null;
+        }
+
+        if (mCenterX.length != mPatternSize) {
+            mCenterX = new float[mPatternSize];
+            mCenterY = new float[mPatternSize];
+            mCircleLeft = new float[mPatternSize];
+            mCircleTop = new float[mPatternSize];
+        }
+        // the circles are centered in their squares
+        final float circleOffsetX = (int) ((mSquareWidth - mBitmapWidth) / 2f)
+                + mBitmapWidth / 2 * (1f - sx);
+        final float circleOffsetY = (int) ((mSquareHeight - mBitmapHeight) / 2f)
+                + mBitmapHeight / 2 * (1f - sy);
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        for (int i = 0; i < mPatternSize; i++) {
+            mCenterX[i] = paddingLeft + i * mSquareWidth + mSquareWidth / 2f;
+            mCenterY[i] = paddingTop + i * mSquareHeight + mSquareHeight / 2f;
+            mCircleLeft[i] = (int) (paddingLeft + i * mSquareWidth) + circleOffsetX;
+            mCircleTop[i] = (int) (paddingTop + i * mSquareHeight) + circleOffsetY;
+        }
+        invalidatePath();
+        releaseGridLayer();
+    }
+
+    /**
+     * @return The grid layer, drawn now if needed, or null if the view has
+     *         no size yet.
+     */
+    private Bitmap getGridLayer() {
+        if (mGridLayer == null) {
+            final int width = getWidth();
+            final int height = getHeight();
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            mGridLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(mGridLayer);
+            final boolean oldFlag = (mPaint.getFlags() & Paint.FILTER_BITMAP_FLAG) != 0;
+            mPaint.setFilterBitmap(true);
+            for (int i = 0; i < mPatternSize; i++) {
+                for (int j = 0; j < mPatternSize; j++) {
+                    drawCircle(canvas, i, j, false);
+                }
+            }
+            mPaint.setFilterBitmap(oldFlag);
+        }
+        return mGridLayer;
+    }
+
+    private void releaseGridLayer() {
+        if (mGridLayer != null) {
+            mGridLayer.recycle();
+            mGridLayer = null;
+        }
+    }
+
+    /**
+     * Drop the cached path, it is rebuilt on the next draw.
+     */
+    private void invalidatePath() {
+        mCurrentPath.rewind();
+        mPathCellCount = 0;
+    }
+
+    /**
+     * Bring the cached path up to the first cellCount cells of the pattern.
+     * Only cells added since the last call are appended; the path is rebuilt
+     * from scratch only when it has to shrink.
+     */
+    private void updatePath(int cellCount) {
+        if (cellCount < mPathCellCount) {
+            invalidatePath();
+        }
+        final ArrayList<Cell> pattern = mPattern;
+        final Path path = mCurrentPath;
+        for (int i = mPathCellCount; i < cellCount; i++) {
+            final Cell cell = pattern.get(i);
+            final float centerX = getCenterXForColumn(cell.column);
+            final float centerY = getCenterYForRow(cell.row);
+            if (i == 0) {
+                path.moveTo(centerX, centerY);
+            } else {
+                path.lineTo(centerX, centerY);
+            }
+        }
+        mPathCellCount = cellCount;
     }
 
     private int resolveMeasured(int measureSpec, int desired)
@@ -529,121 +1091,14 @@ public class LockPatternView extends View {
         setMeasuredDimension(viewWidth, viewHeight);
     }
 
-    /**
-     * Determines whether the point x, y will add a new point to the current
-     * pattern (in addition to finding the cell, also makes heuristic choices
-     * such as filling in gaps based on current pattern).
-     * @param x The x coordinate.
-     * @param y The y coordinate.
-     */
-    private Cell detectAndAddHit(float x, float y) {
-        final Cell cell = checkForNewHit(x, y);
-        if (cell != null) {
-
-            // check for gaps in existing pattern
-            final ArrayList<Cell> pattern = mPattern;
-            if (!pattern.isEmpty()) {
-                final Cell lastCell = pattern.get(pattern.size() - 1);
-                int dRow = cell.row - lastCell.row;
-                int dColumn = cell.column - lastCell.column;
-
-                int fillInRow = lastCell.row;
-                int fillInColumn = lastCell.column;
-
-                if (dRow == 0 || dColumn == 0 || Math.abs(dRow) == Math.abs(dColumn)) {
-                    while (true) {
-                        fillInRow += Integer.signum(dRow);
-                        fillInColumn += Integer.signum(dColumn);
-                        if (fillInRow == cell.row && fillInColumn == cell.column) break;
-                        Cell fillInGapCell = Cell.of(fillInRow, fillInColumn, mPatternSize);
-                        if (!mPatternDrawLookup[fillInGapCell.row][fillInGapCell.column]) {
-                            addCellToPattern(fillInGapCell);
-                        }
-                    }
-                }
-            }
-
-            addCellToPattern(cell);
-            if (mEnableHapticFeedback) {
-                performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY,
-                        HapticFeedbackConstants.FLAG_IGNORE_VIEW_SETTING
-                        | HapticFeedbackConstants.FLAG_IGNORE_GLOBAL_SETTING);
-            }
-            return cell;
-        }
-        return null;
-    }
-
-    private void addCellToPattern(Cell newCell) {
-        mPatternDrawLookup[newCell.getRow()][newCell.getColumn()] = true;
-        mPattern.add(newCell);
-        notifyCellAdded();
-    }
-
-    // helper method to find which cell a point maps to
-    private Cell checkForNewHit(float x, float y) {
-
-        final int rowHit = getRowHit(y);
-        if (rowHit < 0) {
-            return null;
-        }
-        final int columnHit = getColumnHit(x);
-        if (columnHit < 0) {
-            return null;
-        }
-
-        if (mPatternDrawLookup[rowHit][columnHit]) {
-            return null;
-        }
-        return Cell.of(rowHit, columnHit, mPatternSize);
-    }
-
-    /**
-     * Helper method to find the row that y falls into.
-     * @param y The y coordinate
-     * @return The row that y falls in, or -1 if it falls in no row.
-     */
-    private int getRowHit(float y) {
-
-        final float squareHeight = mSquareHeight;
-        float hitSize = squareHeight * mHitFactor;
-
-        float offset = getPaddingTop() + (squareHeight - hitSize) / 2f;
-        for (int i = 0; i < mPatternSize; i++) {
-
-            final float hitTop = offset + squareHeight * i;
-            if (y >= hitTop && y <= hitTop + hitSize) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    /**
-     * Helper method to find the column x fallis into.
-     * @param x The x coordinate.
-     * @return The column that x falls in, or -1 if it falls in no column.
-     */
-    private int getColumnHit(float x) {
-        final float squareWidth = mSquareWidth;
-        float hitSize = squareWidth * mHitFactor;
-
-        float offset = getPaddingLeft() + (squareWidth - hitSize) / 2f;
-        for (int i = 0; i < mPatternSize; i++) {
-
-            final float hitLeft = offset + squareWidth * i;
-            if (x >= hitLeft && x <= hitLeft + hitSize) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         if (!mInputEnabled || !isEnabled()) {
             return false;
         }
+        if (mTraceRecorder != null) {
+            recordTrace(event);
+        }
 
         switch(event.getAction()) {
             case MotionEvent.ACTION_DOWN:
@@ -656,17 +1111,7 @@ public class LockPatternView extends View {
                 handleActionMove(event);
                 return true;
             case MotionEvent.ACTION_CANCEL:
-                if (mPatternInProgress) {
-                    mPatternInProgress = false;
-                    resetPattern();
-                    notifyPatternCleared();
-                }
-                if (PROFILE_DRAWING) {
-                    if (mDrawingProfilingStarted) {
-                        Debug.stopMethodTracing();
-                        mDrawingProfilingStarted = false;
-                    }
-                }
+                mEngine.cancel(event.getEventTime());
                 return true;
         }
         return false;
@@ -682,11 +1127,21 @@ public class LockPatternView extends View {
         for (int i = 0; i < historySize + 1; i++) {
             final float x = i < historySize ? event.getHistoricalX(i) : event.getX();
             final float y = i < historySize ? event.getHistoricalY(i) : event.getY();
-            Cell hitCell = detectAndAddHit(x, y);
+            final long time = i < historySize ? event.getHistoricalEventTime(i)
+                    : event.getEventTime();
+            final int oldPatternSize = mPattern.size();
+            final int hit = mEngine.move(x, y, time);
+            final Cell hitCell = hit < 0 ? null : mGrid.cell(hit);
             final int patternSize = mPattern.size();
-            if (hitCell != null && patternSize == 1) {
-                mPatternInProgress = true;
-                notifyPatternStarted();
+            // a sweep can add several cells, make sure all of them are redrawn
+            for (int j = Math.max(oldPatternSize - 1, 0); j < patternSize - 1; j++) {
+                final Cell added = mPattern.get(j);
+                final float centerX = getCenterXForColumn(added.column);
+                final float centerY = getCenterYForRow(added.row);
+                mTmpInvalidateRect.union(Math.round(centerX - mSquareWidth * 0.5f),
+                        Math.round(centerY - mSquareHeight * 0.5f),
+                        Math.round(centerX + mSquareWidth * 0.5f),
+                        Math.round(centerY + mSquareHeight * 0.5f));
             }
             // note current x and y for rubber banding of in progress patterns
             final float dx = Math.abs(x - mInProgressX);
@@ -741,34 +1196,19 @@ public class LockPatternView extends View {
     }
 
     private void handleActionUp(MotionEvent event) {
-        // report pattern detected
-        if (!mPattern.isEmpty()) {
-            mPatternInProgress = false;
-            notifyPatternDetected();
-            invalidate();
-        }
-        if (PROFILE_DRAWING) {
-            if (mDrawingProfilingStarted) {
-                Debug.stopMethodTracing();
-                mDrawingProfilingStarted = false;
-            }
-        }
+        // reports the pattern, if there is one
+        mEngine.up(event.getEventTime());
     }
 
     private void handleActionDown(MotionEvent event) {
+        // a new attempt, the last one won't get a verdict any more
+        mVerdictPendingSince = -1;
         resetPattern();
         final float x = event.getX();
         final float y = event.getY();
-        final Cell hitCell = detectAndAddHit(x, y);
-        if (hitCell != null) {
-            mPatternInProgress = true;
-            mPatternDisplayMode = DisplayMode.Correct;
-            notifyPatternStarted();
-        } else if (mPatternInProgress) {
-            mPatternInProgress = false;
-            notifyPatternCleared();
-        }
-        if (hitCell != null) {
+        final int hit = mEngine.down(x, y, event.getEventTime());
+        if (hit >= 0) {
+            final Cell hitCell = mGrid.cell(hit);
             final float startX = getCenterXForColumn(hitCell.column);
             final float startY = getCenterYForRow(hitCell.row);
 
@@ -780,81 +1220,42 @@ public class LockPatternView extends View {
         }
         mInProgressX = x;
         mInProgressY = y;
-        if (PROFILE_DRAWING) {
-            if (!mDrawingProfilingStarted) {
-                Debug.startMethodTracing("LockPatternDrawing");
-                mDrawingProfilingStarted = true;
-            }
-        }
     }
 
     private float getCenterXForColumn(int column) {
-        return getPaddingLeft() + column * mSquareWidth + mSquareWidth / 2f;
+        return mCenterX[column];
     }
 
     private float getCenterYForRow(int row) {
-        return getPaddingTop() + row * mSquareHeight + mSquareHeight / 2f;
+        return mCenterY[row];
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
+        final long drawStart = System.nanoTime();
         final ArrayList<Cell> pattern = mPattern;
         final int count = pattern.size();
         final boolean[][] drawLookup = mPatternDrawLookup;
+        // how many cells of the pattern are drawn, only fewer when animating
+        int drawnCount = count;
 
         if (mPatternDisplayMode == DisplayMode.Animate) {
-
-            // figure out which circles to draw
-
-            // + 1 so we pause on complete pattern
-            final int oneCycle = (count + 1) * MILLIS_PER_CIRCLE_ANIMATING;
-            final int spotInCycle = (int) (SystemClock.elapsedRealtime() -
-                    mAnimatingPeriodStart) % oneCycle;
-            final int numCircles = spotInCycle / MILLIS_PER_CIRCLE_ANIMATING;
-
-            clearPatternDrawLookup();
-            for (int i = 0; i < numCircles; i++) {
-                final Cell cell = pattern.get(i);
-                drawLookup[cell.getRow()][cell.getColumn()] = true;
-            }
-
-            // figure out in progress portion of ghosting line
-
-            final boolean needToUpdateInProgressPoint = numCircles > 0
-                    && numCircles < count;
-
-            if (needToUpdateInProgressPoint) {
-                final float percentageOfNextCircle =
-                        ((float) (spotInCycle % MILLIS_PER_CIRCLE_ANIMATING)) /
-                                MILLIS_PER_CIRCLE_ANIMATING;
-
-                final Cell currentCell = pattern.get(numCircles - 1);
-                final float centerX = getCenterXForColumn(currentCell.column);
-                final float centerY = getCenterYForRow(currentCell.row);
-
-                final Cell nextCell = pattern.get(numCircles);
-                final float dx = percentageOfNextCircle *
-                        (getCenterXForColumn(nextCell.column) - centerX);
-                final float dy = percentageOfNextCircle *
-                        (getCenterYForRow(nextCell.row) - centerY);
-                mInProgressX = centerX + dx;
-                mInProgressY = centerY + dy;
-            }
-            // TODO: Infinite loop here...
-            invalidate();
+            // advanced by mAnimationFrame, which also invalidates
+            drawnCount = mAnimatedCount;
         }
 
         final float squareWidth = mSquareWidth;
-        final float squareHeight = mSquareHeight;
 
         float radius = (squareWidth * mDiameterFactor * 0.5f);
         mPathPaint.setStrokeWidth(radius);
 
-        final Path currentPath = mCurrentPath;
-        currentPath.rewind();
+        // the unselected grid comes from the cached layer, so only the path
+        // and the selected circles are drawn per frame
+        final Bitmap gridLayer = getGridLayer();
+        if (gridLayer != null) {
+            canvas.drawBitmap(gridLayer, 0, 0, null);
+        }
 
-        // TODO: the path should be created and cached every time we hit-detect a cell
-        // only the last segment of the path should be computed here
         // draw the path of the pattern (unless the user is in progress, and
         // we are in stealth mode)
 		final boolean drawPath = (!mInStealthMode || mPatternDisplayMode == DisplayMode.Wrong);
@@ -864,59 +1265,47 @@ public class LockPatternView extends View {
         boolean oldFlag = (mPaint.getFlags() & Paint.FILTER_BITMAP_FLAG) != 0;
         mPaint.setFilterBitmap(true); // draw with higher quality since we render with transforms
 
-        if (drawPath) {
-            boolean anyCircles = false;
-            for (int i = 0; i < count; i++) {
-                Cell cell = pattern.get(i);
-
-                // only draw the part of the pattern stored in
-                // the lookup table (this is only different in the case
-                // of animation).
-                if (!drawLookup[cell.row][cell.column]) {
-                    break;
-                }
-                anyCircles = true;
-
-                float centerX = getCenterXForColumn(cell.column);
-                float centerY = getCenterYForRow(cell.row);
-                if (i == 0) {
-                    currentPath.moveTo(centerX, centerY);
-                } else {
-                    currentPath.lineTo(centerX, centerY);
-                }
-            }
+        if (drawPath && drawnCount > 0) {
+            updatePath(drawnCount);
+            canvas.drawPath(mCurrentPath, mPathPaint);
 
             // add last in progress section
-            if ((mPatternInProgress || mPatternDisplayMode == DisplayMode.Animate)
-                    && anyCircles) {
-                currentPath.lineTo(mInProgressX, mInProgressY);
+            if (mPatternInProgress || mPatternDisplayMode == DisplayMode.Animate) {
+                final Cell lastCell = pattern.get(drawnCount - 1);
+                canvas.drawLine(getCenterXForColumn(lastCell.column),
+                        getCenterYForRow(lastCell.row), mInProgressX, mInProgressY,
+                        mPathPaint);
             }
-            canvas.drawPath(currentPath, mPathPaint);
         }
         
         // draw the circles
-        final int paddingTop = getPaddingTop();
-        final int paddingLeft = getPaddingLeft();
-
-        for (int i = 0; i < mPatternSize; i++) {
-            float topY = paddingTop + i * squareHeight;
-            //float centerY = mPaddingTop + i * mSquareHeight + (mSquareHeight / 2);
-            for (int j = 0; j < mPatternSize; j++) {
-                float leftX = paddingLeft + j * squareWidth;
-                drawCircle(canvas, (int) leftX, (int) topY, drawLookup[i][j]);
+        if (gridLayer != null) {
+            // in stealth mode selected circles look unselected, the layer has them
+            if (drawPath) {
+                for (int i = 0; i < drawnCount; i++) {
+                    final Cell cell = pattern.get(i);
+                    drawCircle(canvas, cell.row, cell.column, true);
+                }
+            }
+        } else {
+            for (int i = 0; i < mPatternSize; i++) {
+                for (int j = 0; j < mPatternSize; j++) {
+                    drawCircle(canvas, i, j, drawLookup[i][j]);
+                }
             }
         }
 
         mPaint.setFilterBitmap(oldFlag); // restore default flag
+        mMetrics.record(LockPatternMetrics.DRAW, System.nanoTime() - drawStart);
     }
 
     /**
      * @param canvas
-     * @param leftX
-     * @param topY
+     * @param row
+     * @param column
      * @param partOfPattern Whether this circle is part of the pattern.
      */
-    private void drawCircle(Canvas canvas, int leftX, int topY, boolean partOfPattern) {
+    private void drawCircle(Canvas canvas, int row, int column, boolean partOfPattern) {
         Bitmap outerCircle;
         Bitmap innerCircle;
 		if (!partOfPattern
@@ -942,28 +1331,16 @@ public class LockPatternView extends View {
 					+ mPatternDisplayMode);
 		}
 
-        final int width = mBitmapWidth;
-        final int height = mBitmapHeight;
-
-        final float squareWidth = mSquareWidth;
-        final float squareHeight = mSquareHeight;
-
-        int offsetX = (int) ((squareWidth - width) / 2f);
-        int offsetY = (int) ((squareHeight - height) / 2f);
-
-        // Allow circles to shrink if the view is too small to hold them.
-        float sx = Math.min(mSquareWidth / mBitmapWidth, 1.0f);
-        float sy = Math.min(mSquareHeight / mBitmapHeight, 1.0f);
-
-        mCircleMatrix.setTranslate(leftX + offsetX, topY + offsetY);
-        mCircleMatrix.preTranslate(mBitmapWidth/2, mBitmapHeight/2);
-        mCircleMatrix.preScale(sx, sy);
-        mCircleMatrix.preTranslate(-mBitmapWidth/2, -mBitmapHeight/2);
-
-        canvas.drawBitmap(outerCircle, mCircleMatrix, mPaint);
+        if (outerCircle == null) {
+            // not laid out yet
+            return;
+        }
+        final float left = mCircleLeft[column];
+        final float top = mCircleTop[row];
+        canvas.drawBitmap(outerCircle, left, top, mPaint);
 
 		if (innerCircle != null) {
-			canvas.drawBitmap(innerCircle, mCircleMatrix, mPaint);
+			canvas.drawBitmap(innerCircle, left, top, mPaint);
 		}
     }
 }
\ No newline at end of file
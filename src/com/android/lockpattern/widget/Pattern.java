@@ -0,0 +1,166 @@
+package com.android.lockpattern.widget;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.android.lockpattern.widget.LockPatternView.Cell;
+
+/**
+ * An immutable lock pattern on a grid of any supported size. The cells are
+ * packed one index ({@code row * size + column}) per byte and the hash is
+ * computed once, so copying a pattern is free, patterns work as map and set
+ * keys, and comparing two patterns usually stops at the hash.
+ * <p>
+ * It is a list of {@link Cell}s, equal to any other list with the same cells
+ * in the same order.
+ */
+public final class Pattern extends AbstractList<Cell> implements RandomAccess {
+	private final CellGrid mGrid;
+	private final byte[] mCells;
+	private final int mHash;
+
+	private Pattern(CellGrid grid, byte[] cells) {
+		mGrid = grid;
+		mCells = cells;
+		int hash = 1;
+		for (int i = 0; i < cells.length; i++) {
+			hash = 31 * hash + grid.cell(cells[i]).hashCode();
+		}
+		mHash = hash;
+	}
+
+	/**
+	 * @param pattern
+	 *            The cells, may be null.
+	 * @param size
+	 *            The number of rows and columns of the grid they were drawn
+	 *            on.
+	 * @return The pattern, or null if pattern was null. pattern itself if it
+	 *         already is a Pattern of that size.
+	 */
+	public static Pattern of(List<Cell> pattern, int size) {
+		if (pattern == null) {
+			return null;
+		}
+		final CellGrid grid = CellGrid.of(size);
+		if (pattern instanceof Pattern && ((Pattern) pattern).mGrid == grid) {
+			return (Pattern) pattern;
+		}
+		final int length = pattern.size();
+		if (length > grid.getCellCount()) {
+			throw new IllegalArgumentException("pattern must have at most "
+					+ grid.getCellCount() + " cells");
+		}
+		final byte[] cells = new byte[length];
+		for (int i = 0; i < length; i++) {
+			final Cell cell = pattern.get(i);
+			// checks the range
+			grid.cell(cell.row, cell.column);
+			cells[i] = (byte) (cell.row * size + cell.column);
+		}
+		return new Pattern(grid, cells);
+	}
+
+	/**
+	 * @param code
+	 *            The packed pattern, may be null.
+	 * @return The pattern, or null if code was null.
+	 */
+	public static Pattern of(PatternCode code) {
+		if (code == null) {
+			return null;
+		}
+		final byte[] cells = new byte[code.size()];
+		code.toBytes(cells, 0);
+		return new Pattern(CellGrid.of(PatternCode.GRID_SIZE), cells);
+	}
+
+	/**
+	 * @return The number of rows and columns of the grid.
+	 */
+	public int getGridSize() {
+		return mGrid.getSize();
+	}
+
+	@Override
+	public Cell get(int position) {
+		return mGrid.cell(mCells[position]);
+	}
+
+	@Override
+	public int size() {
+		return mCells.length;
+	}
+
+	/**
+	 * @return The index ({@code row * size + column}) of the cell at position.
+	 */
+	public int indexAt(int position) {
+		return mCells[position];
+	}
+
+	/**
+	 * Write the pattern in the byte form used by
+	 * {@link LockPatternUtils#patternToString(List, byte)}, one cell index per
+	 * byte.
+	 *
+	 * @param out
+	 *            The buffer to write to.
+	 * @param offset
+	 *            Where to start writing.
+	 * @return The number of bytes written.
+	 */
+	public int toBytes(byte[] out, int offset) {
+		System.arraycopy(mCells, 0, out, offset, mCells.length);
+		return mCells.length;
+	}
+
+	/**
+	 * Compare against a list pattern without allocating.
+	 *
+	 * @param pattern
+	 *            The pattern, may be null.
+	 * @return Whether pattern has the same cells in the same order.
+	 */
+	public boolean matches(List<Cell> pattern) {
+		if (pattern instanceof Pattern) {
+			return equals(pattern);
+		}
+		if (pattern == null || pattern.size() != mCells.length) {
+			return false;
+		}
+		final int size = mGrid.getSize();
+		for (int i = 0; i < mCells.length; i++) {
+			final Cell cell = pattern.get(i);
+			if (cell.row >= size || cell.column >= size
+					|| mCells[i] != cell.row * size + cell.column) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof Pattern) {
+			final Pattern other = (Pattern) o;
+			if (mHash != other.mHash || mCells.length != other.mCells.length) {
+				return false;
+			}
+			if (mGrid == other.mGrid) {
+				return Arrays.equals(mCells, other.mCells);
+			}
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return mHash;
+	}
+}
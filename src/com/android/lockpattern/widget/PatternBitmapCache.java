@@ -0,0 +1,151 @@
+package com.android.lockpattern.widget;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * The circle bitmaps of every pattern view in the process. Each asset is
+ * decoded once per size it is drawn at, already scaled to that size, so
+ * views of the same size share their bitmaps, rotating doesn't decode them
+ * again and drawing them needs no scaling.
+ * <p>
+ * Once the bitmaps take more than {@link #setMaxBytes max bytes}, the least
+ * recently used ones are dropped. They aren't recycled, a view may still be
+ * drawing them.
+ */
+public final class PatternBitmapCache {
+	private static final LinkedHashMap<Long, Bitmap> sBitmaps = new LinkedHashMap<Long, Bitmap>(
+			16, 0.75f, true);
+	/** natural size of each asset at each density */
+	private static final Map<Long, int[]> sSizes = new HashMap<Long, int[]>();
+
+	private static long sMaxBytes = Runtime.getRuntime().maxMemory() / 32;
+	private static long sBytes;
+
+	private PatternBitmapCache() {
+	}
+
+	/**
+	 * Look up the size an asset decodes to on this device, without decoding
+	 * it.
+	 *
+	 * @param res
+	 *            The resources to decode from.
+	 * @param resId
+	 *            The drawable.
+	 * @param outSize
+	 *            Receives the width and the height.
+	 */
+	public static synchronized void getSize(Resources res, int resId,
+			int[] outSize) {
+		final int[] size = size(res, resId);
+		outSize[0] = size[0];
+		outSize[1] = size[1];
+	}
+
+	/**
+	 * Get an asset scaled by the given factors.
+	 *
+	 * @param res
+	 *            The resources to decode from.
+	 * @param resId
+	 *            The drawable.
+	 * @param scaleX
+	 *            The horizontal scale, relative to {@link #getSize}.
+	 * @param scaleY
+	 *            The vertical scale.
+	 * @return The shared bitmap, or null if the asset can't be decoded. Don't
+	 *         modify or recycle it.
+	 */
+	public static synchronized Bitmap get(Resources res, int resId,
+			float scaleX, float scaleY) {
+		final int[] size = size(res, resId);
+		final int width = Math.max(1, Math.round(size[0] * scaleX));
+		final int height = Math.max(1, Math.round(size[1] * scaleY));
+		final Long key = Long.valueOf((long) resId << 32
+				| (width << 16 | height) & 0xffffffffL);
+		Bitmap bitmap = sBitmaps.get(key);
+		if (bitmap == null) {
+			bitmap = decode(res, resId, size, width, height);
+			if (bitmap != null) {
+				sBitmaps.put(key, bitmap);
+				sBytes += byteCount(bitmap);
+				trimTo(sMaxBytes);
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Bound the memory the cache may use.
+	 */
+	public static synchronized void setMaxBytes(long maxBytes) {
+		sMaxBytes = maxBytes;
+		trimTo(maxBytes);
+	}
+
+	/**
+	 * Drop every cached bitmap, e.g. when the system is low on memory.
+	 */
+	public static synchronized void clear() {
+		sBitmaps.clear();
+		sBytes = 0;
+	}
+
+	private static int[] size(Resources res, int resId) {
+		final Long key = Long.valueOf((long) resId << 32
+				| res.getDisplayMetrics().densityDpi);
+		int[] size = sSizes.get(key);
+		if (size == null) {
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeResource(res, resId, options);
+			size = new int[] { options.outWidth, options.outHeight };
+			sSizes.put(key, size);
+		}
+		return size;
+	}
+
+	private static Bitmap decode(Resources res, int resId, int[] size,
+			int width, int height) {
+		// subsample while the result stays at least as large as needed,
+		// it saves decoding pixels that would be scaled away
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = 1;
+		while (size[0] / (options.inSampleSize * 2) >= width
+				&& size[1] / (options.inSampleSize * 2) >= height) {
+			options.inSampleSize *= 2;
+		}
+		final Bitmap decoded = BitmapFactory.decodeResource(res, resId, options);
+		if (decoded == null
+				|| (decoded.getWidth() == width && decoded.getHeight() == height)) {
+			return decoded;
+		}
+		final Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height,
+				true);
+		if (scaled != decoded) {
+			decoded.recycle();
+		}
+		return scaled;
+	}
+
+	private static void trimTo(long maxBytes) {
+		final Iterator<Bitmap> eldest = sBitmaps.values().iterator();
+		// keep the bitmap just asked for, even if it alone is too large
+		while (sBytes > maxBytes && sBitmaps.size() > 1) {
+			sBytes -= byteCount(eldest.next());
+			eldest.remove();
+		}
+	}
+
+	private static long byteCount(Bitmap bitmap) {
+		// getByteCount() needs API 12
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,244 @@
+package com.android.lockpattern.widget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A lock pattern packed into primitives. Every cell of a
+ * {@link #GRID_SIZE}x{@link #GRID_SIZE} grid fits in one nibble, so a whole
+ * pattern is a single {@code long} (first cell in the lowest nibble) plus its
+ * length. Encoding, decoding, comparing and hashing never allocate.
+ * <p>
+ * Cells of a smaller grid are packed by their index in the
+ * {@link #GRID_SIZE} grid, {@code row * GRID_SIZE + column}, the same way
+ * {@link LockPatternUtils#patternToString(List)} has always hashed them, so
+ * views of any size up to {@link #GRID_SIZE} can be checked and saved.
+ * Larger grids are rejected by the views' {@code setLockPatternSize}.
+ */
+public final class PatternCode {
+	/**
+	 * The grid size this encoding supports, same as the stored pattern.
+	 */
+	public static final int GRID_SIZE = LockPatternUtils.PATTERN_SIZE_DEFAULT;
+	/**
+	 * The maximum number of cells in a pattern.
+	 */
+	public static final int MAX_LENGTH = GRID_SIZE * GRID_SIZE;
+
+	private static final int BITS_PER_CELL = 4;
+	private static final long CELL_MASK = 0xf;
+
+	public static final PatternCode EMPTY = new PatternCode(0L, 0);
+
+	private final long mCells;
+	private final int mLength;
+
+	private PatternCode(long cells, int length) {
+		mCells = cells;
+		mLength = length;
+	}
+
+	/**
+	 * @param cells
+	 *            The packed cells, as returned by {@link #encode}.
+	 * @param length
+	 *            The number of cells.
+	 */
+	public static PatternCode of(long cells, int length) {
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IllegalArgumentException("length must be in range 0-"
+					+ MAX_LENGTH);
+		}
+		if (length == 0) {
+			return EMPTY;
+		}
+		// drop anything beyond the last cell so equal patterns compare equal
+		if (length < MAX_LENGTH) {
+			cells &= (1L << (length * BITS_PER_CELL)) - 1;
+		}
+		return new PatternCode(cells, length);
+	}
+
+	/**
+	 * @param pattern
+	 *            The pattern, may be null.
+	 * @return The packed pattern, or null if pattern was null.
+	 */
+	public static PatternCode of(List<LockPatternView.Cell> pattern) {
+		if (pattern == null) {
+			return null;
+		}
+		return of(encode(pattern), pattern.size());
+	}
+
+	/**
+	 * Pack a pattern into a long without allocating.
+	 *
+	 * @param pattern
+	 *            The pattern, at most {@link #MAX_LENGTH} cells long.
+	 * @return The packed cells.
+	 */
+	public static long encode(List<LockPatternView.Cell> pattern) {
+		final int length = pattern.size();
+		if (length > MAX_LENGTH) {
+			throw new IllegalArgumentException("pattern must have at most "
+					+ MAX_LENGTH + " cells");
+		}
+		long cells = 0L;
+		for (int i = 0; i < length; i++) {
+			final LockPatternView.Cell cell = pattern.get(i);
+			cells = append(cells, i, indexOf(cell.getRow(), cell.getColumn()));
+		}
+		return cells;
+	}
+
+	/**
+	 * @param cells
+	 *            The packed cells.
+	 * @param length
+	 *            The number of cells already packed.
+	 * @param index
+	 *            The index ({@code row * GRID_SIZE + column}) of the new cell.
+	 * @return The packed cells with index appended.
+	 */
+	public static long append(long cells, int length, int index) {
+		return cells | ((long) index << (length * BITS_PER_CELL));
+	}
+
+	/**
+	 * @param cells
+	 *            The packed cells.
+	 * @param position
+	 *            The position in the pattern.
+	 * @return The index ({@code row * GRID_SIZE + column}) of the cell.
+	 */
+	public static int indexAt(long cells, int position) {
+		return (int) ((cells >>> (position * BITS_PER_CELL)) & CELL_MASK);
+	}
+
+	private static int indexOf(int row, int column) {
+		if (row < 0 || row >= GRID_SIZE || column < 0 || column >= GRID_SIZE) {
+			throw new IllegalArgumentException("cell (" + row + "," + column
+					+ ") is outside a " + GRID_SIZE + "x" + GRID_SIZE + " grid");
+		}
+		return row * GRID_SIZE + column;
+	}
+
+	public long getCells() {
+		return mCells;
+	}
+
+	public int size() {
+		return mLength;
+	}
+
+	public boolean isEmpty() {
+		return mLength == 0;
+	}
+
+	public int indexAt(int position) {
+		checkPosition(position);
+		return indexAt(mCells, position);
+	}
+
+	public int rowAt(int position) {
+		return indexAt(position) / GRID_SIZE;
+	}
+
+	public int columnAt(int position) {
+		return indexAt(position) % GRID_SIZE;
+	}
+
+	public LockPatternView.Cell cellAt(int position) {
+		return CellGrid.of(GRID_SIZE).cell(indexAt(position));
+	}
+
+	private void checkPosition(int position) {
+		if (position < 0 || position >= mLength) {
+			throw new IndexOutOfBoundsException("position " + position
+					+ ", size " + mLength);
+		}
+	}
+
+	/**
+	 * Write the pattern in the byte form used by
+	 * {@link LockPatternUtils#patternToString}, one cell index per byte.
+	 *
+	 * @param out
+	 *            The buffer to write to.
+	 * @param offset
+	 *            Where to start writing.
+	 * @return The number of bytes written.
+	 */
+	public int toBytes(byte[] out, int offset) {
+		for (int i = 0; i < mLength; i++) {
+			out[offset + i] = (byte) indexAt(mCells, i);
+		}
+		return mLength;
+	}
+
+	/**
+	 * Compare against a list pattern without allocating.
+	 *
+	 * @param pattern
+	 *            The pattern, may be null.
+	 * @return Whether pattern has the same cells in the same order.
+	 */
+	public boolean matches(List<LockPatternView.Cell> pattern) {
+		if (pattern == null || pattern.size() != mLength) {
+			return false;
+		}
+		for (int i = 0; i < mLength; i++) {
+			final LockPatternView.Cell cell = pattern.get(i);
+			if (cell.getRow() >= GRID_SIZE || cell.getColumn() >= GRID_SIZE
+					|| indexAt(mCells, i) != cell.getRow() * GRID_SIZE
+							+ cell.getColumn()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The pattern as a new list of cells.
+	 */
+	public List<LockPatternView.Cell> toList() {
+		final List<LockPatternView.Cell> result = new ArrayList<LockPatternView.Cell>(
+				mLength);
+		for (int i = 0; i < mLength; i++) {
+			result.add(cellAt(i));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof PatternCode)) {
+			return false;
+		}
+		final PatternCode other = (PatternCode) o;
+		return mCells == other.mCells && mLength == other.mLength;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (int) (mCells ^ (mCells >>> 32)) + mLength;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < mLength; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			final int index = indexAt(mCells, i);
+			sb.append("(row=").append(index / GRID_SIZE).append(",clmn=")
+					.append(index % GRID_SIZE).append(')');
+		}
+		return sb.append(']').toString();
+	}
+}
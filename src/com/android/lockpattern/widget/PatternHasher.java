@@ -0,0 +1,101 @@
+package com.android.lockpattern.widget;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Hashes patterns for {@link LockPatternUtils} without creating garbage.
+ * Each thread keeps its own digest and scratch buffers, so the provider
+ * lookup happens once per thread rather than once per attempt.
+ */
+public final class PatternHasher {
+	public static final String ALGORITHM = "SHA-1";
+	/**
+	 * The length of a hash written by {@link #hash}.
+	 */
+	public static final int HASH_LENGTH = 20;
+
+	private static final ThreadLocal<PatternHasher> sHasher = new ThreadLocal<PatternHasher>() {
+		@Override
+		protected PatternHasher initialValue() {
+			return new PatternHasher();
+		}
+	};
+
+	/**
+	 * null if {@link #ALGORITHM} is not available, in which case the raw
+	 * pattern bytes are used as the hash, as before.
+	 */
+	private final MessageDigest mDigest;
+	private final byte[] mInput = new byte[PatternCode.MAX_LENGTH];
+
+	private PatternHasher() {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException nsa) {
+			digest = null;
+		}
+		mDigest = digest;
+	}
+
+	/**
+	 * Hash a pattern into a caller supplied buffer.
+	 *
+	 * @param pattern
+	 *            The pattern.
+	 * @param out
+	 *            The buffer to write to, with room for {@link #HASH_LENGTH}
+	 *            bytes from offset.
+	 * @param offset
+	 *            Where to start writing.
+	 * @return The number of bytes written.
+	 */
+	public static int hash(PatternCode pattern, byte[] out, int offset) {
+		return sHasher.get().digest(pattern, out, offset);
+	}
+
+	/**
+	 * Hash raw bytes into a caller supplied buffer.
+	 *
+	 * @param input
+	 *            The input bytes.
+	 * @param inputLength
+	 *            How many bytes of input to hash.
+	 * @param out
+	 *            The buffer to write to.
+	 * @param offset
+	 *            Where to start writing.
+	 * @return The number of bytes written.
+	 */
+	public static int hash(byte[] input, int inputLength, byte[] out,
+			int offset) {
+		return sHasher.get().digest(input, inputLength, out, offset);
+	}
+
+	private int digest(PatternCode pattern, byte[] out, int offset) {
+		final byte[] input = mInput;
+		final int length = pattern.toBytes(input, 0);
+		try {
+			return digest(input, length, out, offset);
+		} finally {
+			Arrays.fill(input, 0, length, (byte) 0);
+		}
+	}
+
+	private int digest(byte[] input, int length, byte[] out, int offset) {
+		if (mDigest == null) {
+			System.arraycopy(input, 0, out, offset, length);
+			return length;
+		}
+		try {
+			mDigest.update(input, 0, length);
+			return mDigest.digest(out, offset, out.length - offset);
+		} catch (DigestException de) {
+			mDigest.reset();
+			throw new IllegalArgumentException("output buffer too small", de);
+		}
+	}
+}
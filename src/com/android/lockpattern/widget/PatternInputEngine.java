@@ -0,0 +1,372 @@
+package com.android.lockpattern.widget;
+
+import com.android.lockpattern.widget.LockPatternView.Cell;
+
+/**
+ * Turns touch samples into a lock pattern. It only deals in coordinates,
+ * timestamps and cell indices ({@code row * size + column}), not in views or
+ * events, so it runs on a plain JVM: {@link LockPatternView} feeds it its
+ * MotionEvents, benchmarks and fuzzers can feed it synthetic gestures.
+ * <p>
+ * Every buffer is allocated when the grid size is set, so feeding samples
+ * never allocates. Not thread safe, samples must come from one thread.
+ */
+public final class PatternInputEngine {
+
+	/**
+	 * The events of a gesture, called from within the engine's methods.
+	 */
+	public interface Listener {
+
+		/**
+		 * A new pattern has begun. Called after its first cell was added.
+		 */
+		void onPatternStart();
+
+		/**
+		 * The pattern in progress was abandoned.
+		 */
+		void onPatternCleared();
+
+		/**
+		 * A cell was added to the pattern.
+		 *
+		 * @param position
+		 *            Its position in the pattern.
+		 * @param index
+		 *            The cell, {@code row * size + column}.
+		 * @param gap
+		 *            Whether it was added because the pattern crossed it
+		 *            between two other cells, rather than touched.
+		 * @param time
+		 *            The time of the sample that added it.
+		 */
+		void onCellAdded(int position, int index, boolean gap, long time);
+
+		/**
+		 * The pattern is complete.
+		 *
+		 * @param time
+		 *            The time of the sample that completed it.
+		 */
+		void onPatternDetected(long time);
+	}
+
+	private CellGrid mGrid;
+	private int mSize;
+	private Listener mListener;
+
+	private int[] mPattern;
+	private int mLength;
+	private boolean[] mSelected;
+	private boolean mInProgress;
+
+	/** the last sample, where the next sweep starts */
+	private float mLastX;
+	private float mLastY;
+
+	private float mGridLeft;
+	private float mGridTop;
+	private float mSquareWidth;
+	private float mSquareHeight;
+	private float mHitRadius;
+	private float mHitRadiusSquared;
+
+	/** cells crossed by the current sweep, ordered by where they are entered */
+	private int[] mSweepCells;
+	private float[] mSweepEntries;
+
+	/**
+	 * @param size
+	 *            The number of rows and columns of the grid.
+	 */
+	public PatternInputEngine(int size) {
+		setGridSize(size);
+	}
+
+	/**
+	 * Change the grid size. Drops the current pattern without an event.
+	 */
+	public void setGridSize(int size) {
+		mGrid = CellGrid.of(size);
+		mSize = size;
+		final int count = size * size;
+		mPattern = new int[count];
+		mSelected = new boolean[count];
+		mSweepCells = new int[count];
+		mSweepEntries = new float[count];
+		mLength = 0;
+		mInProgress = false;
+	}
+
+	public int getGridSize() {
+		return mSize;
+	}
+
+	/**
+	 * Place the grid.
+	 *
+	 * @param left
+	 *            The left edge of the grid.
+	 * @param top
+	 *            The top edge of the grid.
+	 * @param squareWidth
+	 *            The width of each cell's square.
+	 * @param squareHeight
+	 *            The height of each cell's square.
+	 * @param hitRadius
+	 *            How close to the center of a cell a gesture must pass to
+	 *            select it.
+	 */
+	public void setGeometry(float left, float top, float squareWidth,
+			float squareHeight, float hitRadius) {
+		mGridLeft = left;
+		mGridTop = top;
+		mSquareWidth = squareWidth;
+		mSquareHeight = squareHeight;
+		mHitRadius = hitRadius;
+		mHitRadiusSquared = hitRadius * hitRadius;
+	}
+
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * @return The number of cells in the pattern.
+	 */
+	public int getLength() {
+		return mLength;
+	}
+
+	/**
+	 * @return The index of the cell at position in the pattern.
+	 */
+	public int indexAt(int position) {
+		if (position < 0 || position >= mLength) {
+			throw new IndexOutOfBoundsException("position " + position
+					+ ", length " + mLength);
+		}
+		return mPattern[position];
+	}
+
+	/**
+	 * @return Whether the cell with index is part of the pattern.
+	 */
+	public boolean contains(int index) {
+		return mSelected[index];
+	}
+
+	/**
+	 * @return Whether a pattern is being drawn.
+	 */
+	public boolean isInProgress() {
+		return mInProgress;
+	}
+
+	/**
+	 * Drop the cells of the pattern, without an event.
+	 */
+	public void clear() {
+		for (int i = 0; i < mLength; i++) {
+			mSelected[mPattern[i]] = false;
+		}
+		mLength = 0;
+	}
+
+	/**
+	 * A finger went down, starting a new pattern.
+	 *
+	 * @return The index of the cell hit, or -1 if none was.
+	 */
+	public int down(float x, float y, long time) {
+		clear();
+		mLastX = x;
+		mLastY = y;
+		final int hit = getCellHit(x, y);
+		if (hit >= 0) {
+			addHit(hit, time);
+			mInProgress = true;
+			if (mListener != null) {
+				mListener.onPatternStart();
+			}
+		} else if (mInProgress) {
+			mInProgress = false;
+			if (mListener != null) {
+				mListener.onPatternCleared();
+			}
+		}
+		return hit;
+	}
+
+	/**
+	 * The finger moved. Adds every cell crossed on the way from the last
+	 * sample, in the order they were entered, so a fast swipe can't jump over
+	 * a cell between samples.
+	 *
+	 * @return The index of the last cell added, or -1 if none was.
+	 */
+	public int move(float x, float y, long time) {
+		final int oldLength = mLength;
+		final int hit = detectAndAddHits(mLastX, mLastY, x, y, time);
+		mLastX = x;
+		mLastY = y;
+		if (hit >= 0 && oldLength == 0) {
+			mInProgress = true;
+			if (mListener != null) {
+				mListener.onPatternStart();
+			}
+		}
+		return hit;
+	}
+
+	/**
+	 * The finger went up, completing the pattern if it has any cells.
+	 */
+	public void up(long time) {
+		if (mLength > 0) {
+			mInProgress = false;
+			if (mListener != null) {
+				mListener.onPatternDetected(time);
+			}
+		}
+	}
+
+	/**
+	 * The gesture was cancelled, abandoning the pattern in progress.
+	 */
+	public void cancel(long time) {
+		if (mInProgress) {
+			clear();
+			mInProgress = false;
+			if (mListener != null) {
+				mListener.onPatternCleared();
+			}
+		}
+	}
+
+	private int detectAndAddHits(float x0, float y0, float x1, float y1,
+			long time) {
+		final float r = mHitRadius;
+		final int size = mSize;
+		// only cells whose squares overlap the segment's bounds can be crossed
+		final int firstColumn = Math.max(0,
+				(int) Math.floor((Math.min(x0, x1) - r - mGridLeft) / mSquareWidth));
+		final int lastColumn = Math.min(size - 1,
+				(int) Math.floor((Math.max(x0, x1) + r - mGridLeft) / mSquareWidth));
+		final int firstRow = Math.max(0,
+				(int) Math.floor((Math.min(y0, y1) - r - mGridTop) / mSquareHeight));
+		final int lastRow = Math.min(size - 1,
+				(int) Math.floor((Math.max(y0, y1) + r - mGridTop) / mSquareHeight));
+
+		final float dx = x1 - x0;
+		final float dy = y1 - y0;
+		final float a = dx * dx + dy * dy;
+		final int[] cells = mSweepCells;
+		final float[] entries = mSweepEntries;
+		int count = 0;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				final int index = row * size + column;
+				if (mSelected[index]) {
+					continue;
+				}
+				// solve |p0 + t * d - center| = r for the entry point t
+				final float fx = x0 - getCenterX(column);
+				final float fy = y0 - getCenterY(row);
+				final float c = fx * fx + fy * fy - mHitRadiusSquared;
+				float t;
+				if (c <= 0f) {
+					t = 0f;
+				} else {
+					final float b = fx * dx + fy * dy;
+					final float discriminant = b * b - a * c;
+					if (a == 0f || b >= 0f || discriminant < 0f) {
+						continue;
+					}
+					t = (-b - (float) Math.sqrt(discriminant)) / a;
+					if (t > 1f) {
+						continue;
+					}
+				}
+				// insertion sort, there are only ever a few candidates
+				int i = count++;
+				while (i > 0 && entries[i - 1] > t) {
+					entries[i] = entries[i - 1];
+					cells[i] = cells[i - 1];
+					i--;
+				}
+				entries[i] = t;
+				cells[i] = index;
+			}
+		}
+
+		int lastHit = -1;
+		for (int i = 0; i < count; i++) {
+			final int index = cells[i];
+			// may have been added already, filling in a gap
+			if (!mSelected[index]) {
+				addHit(index, time);
+				lastHit = index;
+			}
+		}
+		return lastHit;
+	}
+
+	private void addHit(int index, long time) {
+		// check for gaps in existing pattern
+		if (mLength > 0) {
+			final Cell[] gap = mGrid.between(mPattern[mLength - 1], index);
+			for (int i = 0; i < gap.length; i++) {
+				final int fillIn = gap[i].row * mSize + gap[i].column;
+				if (!mSelected[fillIn]) {
+					addCell(fillIn, true, time);
+				}
+			}
+		}
+		addCell(index, false, time);
+	}
+
+	private void addCell(int index, boolean gap, long time) {
+		mSelected[index] = true;
+		final int position = mLength++;
+		mPattern[position] = index;
+		if (mListener != null) {
+			mListener.onCellAdded(position, index, gap, time);
+		}
+	}
+
+	/**
+	 * @return The index of the unselected cell whose hit circle x, y falls
+	 *         in, or -1. The candidate is computed directly from the
+	 *         coordinates, so the cost doesn't depend on the grid size.
+	 */
+	private int getCellHit(float x, float y) {
+		final float gridX = (x - mGridLeft) / mSquareWidth;
+		final float gridY = (y - mGridTop) / mSquareHeight;
+		// also false for NaN, before the geometry is set
+		if (!(gridX >= 0f && gridY >= 0f)) {
+			return -1;
+		}
+		final int column = (int) gridX;
+		final int row = (int) gridY;
+		if (column >= mSize || row >= mSize) {
+			return -1;
+		}
+		final float dx = (gridX - column - 0.5f) * mSquareWidth;
+		final float dy = (gridY - row - 0.5f) * mSquareHeight;
+		if (dx * dx + dy * dy > mHitRadiusSquared) {
+			return -1;
+		}
+		final int index = row * mSize + column;
+		return mSelected[index] ? -1 : index;
+	}
+
+	private float getCenterX(int column) {
+		return mGridLeft + column * mSquareWidth + mSquareWidth / 2f;
+	}
+
+	private float getCenterY(int row) {
+		return mGridTop + row * mSquareHeight + mSquareHeight / 2f;
+	}
+}
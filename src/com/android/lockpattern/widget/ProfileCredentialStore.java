@@ -0,0 +1,347 @@
+package com.android.lockpattern.widget;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+
+/**
+ * Patterns for many profiles, e.g. the operators of a shared kiosk, keyed by
+ * profile id.
+ * <p>
+ * Records live in fixed-size slots of a memory-mapped file, one slot per
+ * profile, so looking up, verifying or updating one profile costs the same
+ * however many there are, and never rewrites the others. A small index file
+ * maps slots to profile ids: a magic number, the number of slots in use,
+ * then one int per slot. It is only written when a profile is added.
+ * <p>
+ * A slot holds two copies, A then B, each big-endian:
+ *
+ * <pre>
+ *   0  int    generation, one more than the other copy's when written
+ *   4  byte[] a {@link CredentialRecord}, or zeros if the pattern was cleared
+ * 120  int    CRC-32 of bytes 0-119
+ * </pre>
+ *
+ * A save overwrites the older copy, so a write torn by a crash leaves the
+ * newer one intact; loads use the valid copy with the highest generation.
+ */
+public final class ProfileCredentialStore {
+	private static final String RECORD_FILE = "profiles.dat";
+	private static final String INDEX_FILE = "profiles.idx";
+
+	private static final int INDEX_MAGIC = 0x4c504b49; // "LPKI"
+	private static final int INDEX_HEADER_LENGTH = 8;
+	private static final int COPY_GENERATION = 0;
+	private static final int COPY_RECORD = 4;
+	private static final int COPY_CHECKSUM = COPY_RECORD
+			+ CredentialRecord.RECORD_LENGTH;
+	private static final int COPY_LENGTH = COPY_CHECKSUM + 4;
+	private static final int SLOT_LENGTH = 2 * COPY_LENGTH;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final ThreadLocal<byte[]> sSlotBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SLOT_LENGTH];
+		}
+	};
+
+	private final KeyDerivation mKdf;
+	private final int mCost;
+	private final SecureRandom mRandom = new SecureRandom();
+
+	private final RandomAccessFile mIndexFile;
+	private final RandomAccessFile mRecordFile;
+	private MappedByteBuffer mRecords;
+	private int mCapacity;
+
+	/** profile id to slot, open addressing */
+	private int[] mKeys;
+	private int[] mSlots;
+	private boolean[] mUsed;
+	private int mCount;
+
+	/**
+	 * Open the store in directory, creating it if needed.
+	 *
+	 * @param directory
+	 *            Where to keep the store's files.
+	 * @param kdf
+	 *            The key derivation function for patterns saved from now on.
+	 * @param cost
+	 *            The cost for patterns saved from now on, see
+	 *            {@link KeyDerivation#calibrate}.
+	 */
+	public ProfileCredentialStore(File directory, KeyDerivation kdf, int cost)
+			throws IOException {
+		mKdf = kdf;
+		mCost = cost;
+		mIndexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+		mRecordFile = new RandomAccessFile(new File(directory, RECORD_FILE),
+				"rw");
+		try {
+			loadIndex();
+			int capacity = Math.max(INITIAL_CAPACITY,
+					(int) (mRecordFile.length() / SLOT_LENGTH));
+			while (capacity < mCount) {
+				capacity *= 2;
+			}
+			mapRecords(capacity);
+		} catch (IOException ioe) {
+			close();
+			throw ioe;
+		}
+	}
+
+	private void loadIndex() throws IOException {
+		final int length = (int) mIndexFile.length();
+		int count = 0;
+		byte[] data = null;
+		if (length >= INDEX_HEADER_LENGTH) {
+			data = new byte[length];
+			mIndexFile.readFully(data);
+			final ByteBuffer index = ByteBuffer.wrap(data);
+			if (index.getInt(0) != INDEX_MAGIC) {
+				throw new IOException("Not a profile index");
+			}
+			count = Math.min(index.getInt(4), (length - INDEX_HEADER_LENGTH) / 4);
+		} else {
+			mIndexFile.setLength(0);
+			mIndexFile.writeInt(INDEX_MAGIC);
+			mIndexFile.writeInt(0);
+			mIndexFile.getFD().sync();
+		}
+		int tableSize = 16;
+		while (tableSize < count * 2) {
+			tableSize *= 2;
+		}
+		mKeys = new int[tableSize];
+		mSlots = new int[tableSize];
+		mUsed = new boolean[tableSize];
+		mCount = 0;
+		if (data != null) {
+			final ByteBuffer index = ByteBuffer.wrap(data);
+			for (int slot = 0; slot < count; slot++) {
+				put(index.getInt(INDEX_HEADER_LENGTH + slot * 4), slot);
+			}
+		}
+	}
+
+	private void mapRecords(int capacity) throws IOException {
+		if (mRecordFile.length() < (long) capacity * SLOT_LENGTH) {
+			mRecordFile.setLength((long) capacity * SLOT_LENGTH);
+		}
+		mRecords = mRecordFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+				0, (long) capacity * SLOT_LENGTH);
+		mCapacity = capacity;
+	}
+
+	/**
+	 * @return The number of profiles that have had a pattern saved.
+	 */
+	public synchronized int size() {
+		return mCount;
+	}
+
+	/**
+	 * @return Whether profileId has a saved pattern.
+	 */
+	public boolean contains(int profileId) {
+		final byte[] buffer = sSlotBuffer.get();
+		if (!readSlot(profileId, buffer)) {
+			return false;
+		}
+		final int copy = newestCopy(buffer);
+		return copy >= 0
+				&& CredentialRecord.hasHeader(buffer, copy + COPY_RECORD,
+						CredentialRecord.RECORD_LENGTH);
+	}
+
+	/**
+	 * Check a pattern against the one saved for a profile. The key
+	 * derivation runs outside the store's lock.
+	 *
+	 * @return Whether the pattern matches. False if the profile has no
+	 *         pattern or both copies of its record are corrupt.
+	 */
+	public boolean verify(int profileId, PatternCode pattern) {
+		final byte[] buffer = sSlotBuffer.get();
+		if (!readSlot(profileId, buffer)) {
+			return false;
+		}
+		final int copy = newestCopy(buffer);
+		if (copy < 0) {
+			return false;
+		}
+		final CredentialRecord record = CredentialRecord.parse(buffer, copy
+				+ COPY_RECORD, CredentialRecord.RECORD_LENGTH);
+		return record != null && record.verify(pattern);
+	}
+
+	/**
+	 * Save the pattern of a profile, replacing any previous one. Only the
+	 * older copy in that profile's slot is written.
+	 *
+	 * @param profileId
+	 *            The profile.
+	 * @param pattern
+	 *            The new pattern, or null to clear the profile's pattern.
+	 */
+	public void save(int profileId, PatternCode pattern) throws IOException {
+		final byte[] data = new byte[COPY_LENGTH];
+		if (pattern != null) {
+			final byte[] salt = new byte[KeyDerivation.SALT_LENGTH];
+			mRandom.nextBytes(salt);
+			// derive before taking the lock, it is the slow part
+			CredentialRecord.create(PatternCode.GRID_SIZE, mKdf, mCost, salt,
+					mKdf.derive(pattern, salt, mCost)).write(data, COPY_RECORD);
+		}
+		synchronized (this) {
+			int slot = get(profileId);
+			final boolean added = slot < 0;
+			if (added) {
+				if (pattern == null) {
+					return;
+				}
+				slot = mCount;
+				if (slot >= mCapacity) {
+					mapRecords(mCapacity * 2);
+				}
+			}
+			// a new slot may hold what a crash left before the index was
+			// written, supersede it like any other copy
+			final byte[] current = sSlotBuffer.get();
+			copySlot(slot, current);
+			final int newest = newestCopy(current);
+			int target = 0;
+			int generation = 1;
+			if (newest >= 0) {
+				target = newest == 0 ? COPY_LENGTH : 0;
+				generation = readInt(current, newest + COPY_GENERATION) + 1;
+			}
+			writeInt(data, COPY_GENERATION, generation);
+			writeInt(data, COPY_CHECKSUM,
+					CredentialRecord.crc32(data, 0, COPY_CHECKSUM));
+			final ByteBuffer records = mRecords.duplicate();
+			records.position(slot * SLOT_LENGTH + target);
+			records.put(data);
+			mRecords.force();
+			if (added) {
+				// the record is durable before the index points at it
+				mIndexFile.seek(INDEX_HEADER_LENGTH + slot * 4);
+				mIndexFile.writeInt(profileId);
+				mIndexFile.seek(4);
+				mIndexFile.writeInt(slot + 1);
+				mIndexFile.getFD().sync();
+				put(profileId, slot);
+			}
+		}
+	}
+
+	/**
+	 * Release the store's files.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			mIndexFile.close();
+		} finally {
+			mRecordFile.close();
+		}
+	}
+
+	private synchronized boolean readSlot(int profileId, byte[] buffer) {
+		final int slot = get(profileId);
+		if (slot < 0) {
+			return false;
+		}
+		copySlot(slot, buffer);
+		return true;
+	}
+
+	private void copySlot(int slot, byte[] buffer) {
+		final ByteBuffer records = mRecords.duplicate();
+		records.position(slot * SLOT_LENGTH);
+		records.get(buffer, 0, SLOT_LENGTH);
+	}
+
+	/**
+	 * @return The offset of the newest valid copy in slot, or -1 if neither
+	 *         is valid.
+	 */
+	private static int newestCopy(byte[] slot) {
+		final boolean a = isValidCopy(slot, 0);
+		final boolean b = isValidCopy(slot, COPY_LENGTH);
+		if (a && b) {
+			// compared by difference, so the generation may wrap around
+			return readInt(slot, COPY_LENGTH + COPY_GENERATION)
+					- readInt(slot, COPY_GENERATION) > 0 ? COPY_LENGTH : 0;
+		}
+		return a ? 0 : b ? COPY_LENGTH : -1;
+	}
+
+	private static boolean isValidCopy(byte[] slot, int offset) {
+		return readInt(slot, offset + COPY_CHECKSUM) == CredentialRecord
+				.crc32(slot, offset, COPY_CHECKSUM);
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+				| (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+	}
+
+	private static void writeInt(byte[] out, int offset, int value) {
+		out[offset] = (byte) (value >>> 24);
+		out[offset + 1] = (byte) (value >>> 16);
+		out[offset + 2] = (byte) (value >>> 8);
+		out[offset + 3] = (byte) value;
+	}
+
+	private int get(int profileId) {
+		final int mask = mKeys.length - 1;
+		for (int i = mix(profileId) & mask; mUsed[i]; i = (i + 1) & mask) {
+			if (mKeys[i] == profileId) {
+				return mSlots[i];
+			}
+		}
+		return -1;
+	}
+
+	private void put(int profileId, int slot) {
+		if ((mCount + 1) * 2 > mKeys.length) {
+			final int[] keys = mKeys;
+			final int[] slots = mSlots;
+			final boolean[] used = mUsed;
+			mKeys = new int[keys.length * 2];
+			mSlots = new int[keys.length * 2];
+			mUsed = new boolean[keys.length * 2];
+			mCount = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (used[i]) {
+					put(keys[i], slots[i]);
+				}
+			}
+		}
+		final int mask = mKeys.length - 1;
+		int i = mix(profileId) & mask;
+		while (mUsed[i]) {
+			if (mKeys[i] == profileId) {
+				mSlots[i] = slot;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		mUsed[i] = true;
+		mKeys[i] = profileId;
+		mSlots[i] = slot;
+		mCount++;
+	}
+
+	private static int mix(int key) {
+		final int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,202 @@
+package com.android.lockpattern.widget;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the touch samples a {@link LockPatternView} feeds its
+ * {@link PatternInputEngine}, in a compact binary form that
+ * {@link TouchTraceReplayer} plays back, so a field report of dropped cells or
+ * slow unlocks can be reproduced and measured off the device.
+ * <p>
+ * Off unless set with {@link LockPatternView#setTouchTraceRecorder}. Once
+ * the trace reaches its maximum size, further events are dropped and
+ * {@link #isTruncated} turns true.
+ * <p>
+ * A trace is the int {@link #MAGIC} and a version byte, then records,
+ * big-endian:
+ *
+ * <pre>
+ * {@link #GEOMETRY}  byte grid size, float left, top, square width,
+ *           square height, hit radius
+ * action    varint sample count, then per sample: zigzag varint
+ *           milliseconds since the previous sample, float x, float y
+ * </pre>
+ *
+ * where action is {@link #DOWN}, {@link #UP}, {@link #MOVE} or
+ * {@link #CANCEL}. A move's samples are its history batch followed by its
+ * current position.
+ */
+public final class TouchTraceRecorder {
+	public static final int MAGIC = 0x4c505452; // "LPTR"
+	public static final int VERSION = 1;
+
+	/** the same values as the MotionEvent actions */
+	public static final int DOWN = 0;
+	public static final int UP = 1;
+	public static final int MOVE = 2;
+	public static final int CANCEL = 3;
+	public static final int GEOMETRY = 0x10;
+
+	/** the longest encoding of one sample */
+	private static final int MAX_SAMPLE_LENGTH = 10 + 4 + 4;
+
+	private final int mMaxBytes;
+	private byte[] mData = new byte[1024];
+	private int mLength;
+	private long mLastTime;
+	private int mPendingSamples;
+	private boolean mTruncated;
+
+	/**
+	 * @param maxBytes
+	 *            The most bytes to record.
+	 */
+	public TouchTraceRecorder(int maxBytes) {
+		if (maxBytes < 5) {
+			throw new IllegalArgumentException("maxBytes too small");
+		}
+		mMaxBytes = maxBytes;
+		reset();
+	}
+
+	/**
+	 * Record where the grid is, before the samples it applies to.
+	 */
+	public synchronized void geometry(int gridSize, float left, float top,
+			float squareWidth, float squareHeight, float hitRadius) {
+		if (!reserve(1 + 1 + 5 * 4)) {
+			return;
+		}
+		writeByte(GEOMETRY);
+		writeByte(gridSize);
+		writeFloat(left);
+		writeFloat(top);
+		writeFloat(squareWidth);
+		writeFloat(squareHeight);
+		writeFloat(hitRadius);
+	}
+
+	/**
+	 * Start recording an event. Follow it with exactly sampleCount calls to
+	 * {@link #sample}.
+	 *
+	 * @param action
+	 *            {@link #DOWN}, {@link #UP}, {@link #MOVE} or {@link #CANCEL}.
+	 * @param sampleCount
+	 *            The number of samples, at least 1.
+	 * @return Whether the event is recorded. If not, skip its samples.
+	 */
+	public synchronized boolean beginEvent(int action, int sampleCount) {
+		if (action < DOWN || action > CANCEL) {
+			throw new IllegalArgumentException("unknown action " + action);
+		}
+		if (sampleCount < 1) {
+			throw new IllegalArgumentException("an event needs a sample");
+		}
+		if (mPendingSamples != 0) {
+			throw new IllegalStateException(mPendingSamples
+					+ " samples missing from the previous event");
+		}
+		if (!reserve(1 + 5 + sampleCount * MAX_SAMPLE_LENGTH)) {
+			return false;
+		}
+		writeByte(action);
+		writeVarint(sampleCount);
+		mPendingSamples = sampleCount;
+		return true;
+	}
+
+	/**
+	 * Record a sample of the current event.
+	 *
+	 * @param time
+	 *            The time of the sample, in milliseconds.
+	 */
+	public synchronized void sample(long time, float x, float y) {
+		if (mPendingSamples == 0) {
+			throw new IllegalStateException("no event to add a sample to");
+		}
+		mPendingSamples--;
+		final long delta = time - mLastTime;
+		mLastTime = time;
+		writeVarint((delta << 1) ^ (delta >> 63));
+		writeFloat(x);
+		writeFloat(y);
+	}
+
+	/**
+	 * @return Whether events were dropped because the trace was full.
+	 */
+	public synchronized boolean isTruncated() {
+		return mTruncated;
+	}
+
+	/**
+	 * @return The trace so far, in a new array.
+	 */
+	public synchronized byte[] toByteArray() {
+		final byte[] result = new byte[mLength];
+		System.arraycopy(mData, 0, result, 0, mLength);
+		return result;
+	}
+
+	/**
+	 * Write the trace so far.
+	 */
+	public synchronized void writeTo(OutputStream out) throws IOException {
+		out.write(mData, 0, mLength);
+	}
+
+	/**
+	 * Start a new trace, dropping what was recorded.
+	 */
+	public synchronized void reset() {
+		mLength = 0;
+		mLastTime = 0;
+		mPendingSamples = 0;
+		mTruncated = false;
+		writeInt(MAGIC);
+		writeByte(VERSION);
+	}
+
+	private boolean reserve(int length) {
+		if (mTruncated || mLength + length > mMaxBytes) {
+			mTruncated = true;
+			return false;
+		}
+		if (mLength + length > mData.length) {
+			int capacity = mData.length * 2;
+			while (capacity < mLength + length) {
+				capacity *= 2;
+			}
+			final byte[] data = new byte[Math.min(capacity, mMaxBytes)];
+			System.arraycopy(mData, 0, data, 0, mLength);
+			mData = data;
+		}
+		return true;
+	}
+
+	private void writeByte(int value) {
+		mData[mLength++] = (byte) value;
+	}
+
+	private void writeInt(int value) {
+		writeByte(value >>> 24);
+		writeByte(value >>> 16);
+		writeByte(value >>> 8);
+		writeByte(value);
+	}
+
+	private void writeFloat(float value) {
+		writeInt(Float.floatToIntBits(value));
+	}
+
+	private void writeVarint(long value) {
+		while ((value & ~0x7fL) != 0) {
+			writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		writeByte((int) value);
+	}
+}
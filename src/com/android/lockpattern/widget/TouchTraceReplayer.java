@@ -0,0 +1,330 @@
+package com.android.lockpattern.widget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a trace written by {@link TouchTraceRecorder} back through a
+ * {@link PatternInputEngine}, the same way {@link LockPatternView} feeds it,
+ * and measures what it detects and how long each event takes to process.
+ * Replays are deterministic, so the results of two builds can be compared.
+ * <p>
+ * The trace is decoded once, when the replayer is created, so replaying
+ * only costs what the engine does.
+ */
+public final class TouchTraceReplayer {
+	/** action of each record, including {@link TouchTraceRecorder#GEOMETRY} */
+	private final int[] mActions;
+	/** first sample of each event, or first geometry value */
+	private final int[] mFirst;
+	/** number of samples of each event */
+	private final int[] mCounts;
+	private final int mRecordCount;
+	private final int mEventCount;
+
+	private final long[] mTimes;
+	private final float[] mX;
+	private final float[] mY;
+	/** grid size and five geometry values per geometry record */
+	private final float[] mGeometry;
+
+	private final long[] mEventNanos;
+	private final List<int[]> mDetected = new ArrayList<int[]>();
+	private int mCellCount;
+	private int mClearedCount;
+	private PatternInputEngine.Listener mDelegate;
+
+	private final PatternInputEngine.Listener mListener = new PatternInputEngine.Listener() {
+		public void onPatternStart() {
+			if (mDelegate != null) {
+				mDelegate.onPatternStart();
+			}
+		}
+
+		public void onPatternCleared() {
+			mClearedCount++;
+			if (mDelegate != null) {
+				mDelegate.onPatternCleared();
+			}
+		}
+
+		public void onCellAdded(int position, int index, boolean gap, long time) {
+			mCellCount++;
+			if (mDelegate != null) {
+				mDelegate.onCellAdded(position, index, gap, time);
+			}
+		}
+
+		public void onPatternDetected(long time) {
+			final int[] pattern = new int[mEngine.getLength()];
+			for (int i = 0; i < pattern.length; i++) {
+				pattern[i] = mEngine.indexAt(i);
+			}
+			mDetected.add(pattern);
+			if (mDelegate != null) {
+				mDelegate.onPatternDetected(time);
+			}
+		}
+	};
+	private PatternInputEngine mEngine;
+
+	/**
+	 * Decode a trace.
+	 *
+	 * @param trace
+	 *            The trace, as from {@link TouchTraceRecorder#toByteArray}.
+	 * @throws IllegalArgumentException
+	 *             If it isn't a trace or is corrupt.
+	 */
+	public TouchTraceReplayer(byte[] trace) {
+		final Reader reader = new Reader(trace);
+		if (trace.length < 5 || reader.readInt() != TouchTraceRecorder.MAGIC) {
+			throw new IllegalArgumentException("not a touch trace");
+		}
+		if (reader.readByte() != TouchTraceRecorder.VERSION) {
+			throw new IllegalArgumentException("unknown touch trace version");
+		}
+		// a first pass sizes the arrays
+		int records = 0;
+		int events = 0;
+		int samples = 0;
+		int geometries = 0;
+		final int start = reader.mPosition;
+		while (reader.hasMore()) {
+			final int action = reader.readByte();
+			records++;
+			if (action == TouchTraceRecorder.GEOMETRY) {
+				reader.skip(1 + 5 * 4);
+				geometries++;
+			} else {
+				checkAction(action);
+				final long count = reader.readVarint();
+				if (count < 1 || count > trace.length) {
+					throw new IllegalArgumentException(
+							"corrupt touch trace, sample count " + count);
+				}
+				for (int i = 0; i < count; i++) {
+					reader.readVarint();
+					reader.skip(8);
+				}
+				events++;
+				samples += (int) count;
+			}
+		}
+
+		mActions = new int[records];
+		mFirst = new int[records];
+		mCounts = new int[records];
+		mTimes = new long[samples];
+		mX = new float[samples];
+		mY = new float[samples];
+		mGeometry = new float[geometries * 6];
+		mEventNanos = new long[events];
+		mRecordCount = records;
+		mEventCount = events;
+
+		reader.mPosition = start;
+		long time = 0;
+		int sample = 0;
+		int geometry = 0;
+		for (int record = 0; record < records; record++) {
+			final int action = reader.readByte();
+			mActions[record] = action;
+			if (action == TouchTraceRecorder.GEOMETRY) {
+				mFirst[record] = geometry;
+				mGeometry[geometry++] = reader.readByte();
+				for (int i = 0; i < 5; i++) {
+					mGeometry[geometry++] = reader.readFloat();
+				}
+			} else {
+				final int count = (int) reader.readVarint();
+				mFirst[record] = sample;
+				mCounts[record] = count;
+				for (int i = 0; i < count; i++) {
+					final long zigzag = reader.readVarint();
+					time += (zigzag >>> 1) ^ -(zigzag & 1);
+					mTimes[sample] = time;
+					mX[sample] = reader.readFloat();
+					mY[sample] = reader.readFloat();
+					sample++;
+				}
+			}
+		}
+	}
+
+	private static void checkAction(int action) {
+		if (action < TouchTraceRecorder.DOWN || action > TouchTraceRecorder.CANCEL) {
+			throw new IllegalArgumentException("corrupt touch trace, action "
+					+ action);
+		}
+	}
+
+	/**
+	 * @return The number of touch events in the trace.
+	 */
+	public int getEventCount() {
+		return mEventCount;
+	}
+
+	/**
+	 * Replay the trace. The engine's listener is replaced, and left unset
+	 * afterwards.
+	 *
+	 * @param engine
+	 *            The engine to feed. The trace's geometry is applied to it.
+	 * @param speed
+	 *            1 to replay at the recorded pace, 2 at twice the pace and so
+	 *            on, or 0 to replay as fast as possible.
+	 * @param listener
+	 *            Also receives the engine's events, may be null.
+	 */
+	public void replay(PatternInputEngine engine, float speed,
+			PatternInputEngine.Listener listener) throws InterruptedException {
+		mEngine = engine;
+		mDelegate = listener;
+		mDetected.clear();
+		mCellCount = 0;
+		mClearedCount = 0;
+		engine.setListener(mListener);
+		try {
+			final long startNanos = System.nanoTime();
+			final long startTime = mTimes.length > 0 ? mTimes[0] : 0;
+			int event = 0;
+			for (int record = 0; record < mRecordCount; record++) {
+				final int action = mActions[record];
+				final int first = mFirst[record];
+				if (action == TouchTraceRecorder.GEOMETRY) {
+					applyGeometry(engine, first);
+					continue;
+				}
+				if (speed > 0f) {
+					waitUntil(startNanos
+							+ (long) ((mTimes[first] - startTime) * 1000000L / speed));
+				}
+				final long eventStart = System.nanoTime();
+				dispatch(engine, action, first, mCounts[record]);
+				mEventNanos[event++] = System.nanoTime() - eventStart;
+			}
+		} finally {
+			engine.setListener(null);
+			mEngine = null;
+			mDelegate = null;
+		}
+	}
+
+	private void applyGeometry(PatternInputEngine engine, int first) {
+		final float[] geometry = mGeometry;
+		final int size = (int) geometry[first];
+		if (engine.getGridSize() != size) {
+			engine.setGridSize(size);
+		}
+		engine.setGeometry(geometry[first + 1], geometry[first + 2],
+				geometry[first + 3], geometry[first + 4], geometry[first + 5]);
+	}
+
+	private void dispatch(PatternInputEngine engine, int action, int first,
+			int count) {
+		final int last = first + count - 1;
+		switch (action) {
+			case TouchTraceRecorder.DOWN:
+				engine.down(mX[last], mY[last], mTimes[last]);
+				break;
+			case TouchTraceRecorder.MOVE:
+				for (int i = first; i <= last; i++) {
+					engine.move(mX[i], mY[i], mTimes[i]);
+				}
+				break;
+			case TouchTraceRecorder.UP:
+				engine.up(mTimes[last]);
+				break;
+			case TouchTraceRecorder.CANCEL:
+				engine.cancel(mTimes[last]);
+				break;
+		}
+	}
+
+	private static void waitUntil(long nanos) throws InterruptedException {
+		final long remaining = nanos - System.nanoTime();
+		if (remaining > 0) {
+			Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+		}
+	}
+
+	/**
+	 * @return How long the engine took to process event in the last replay,
+	 *         in nanoseconds.
+	 */
+	public long getEventNanos(int event) {
+		return mEventNanos[event];
+	}
+
+	/**
+	 * @return The patterns detected in the last replay, as cell indices.
+	 */
+	public List<int[]> getDetectedPatterns() {
+		return mDetected;
+	}
+
+	/**
+	 * @return The number of cells added in the last replay, including
+	 *         patterns that were cleared.
+	 */
+	public int getCellCount() {
+		return mCellCount;
+	}
+
+	/**
+	 * @return The number of patterns abandoned in the last replay.
+	 */
+	public int getClearedCount() {
+		return mClearedCount;
+	}
+
+	private static final class Reader {
+		private final byte[] mData;
+		private int mPosition;
+
+		Reader(byte[] data) {
+			mData = data;
+		}
+
+		boolean hasMore() {
+			return mPosition < mData.length;
+		}
+
+		int readByte() {
+			if (mPosition >= mData.length) {
+				throw new IllegalArgumentException("truncated touch trace");
+			}
+			return mData[mPosition++] & 0xff;
+		}
+
+		void skip(int length) {
+			if (mPosition + length > mData.length) {
+				throw new IllegalArgumentException("truncated touch trace");
+			}
+			mPosition += length;
+		}
+
+		int readInt() {
+			return readByte() << 24 | readByte() << 16 | readByte() << 8
+					| readByte();
+		}
+
+		float readFloat() {
+			return Float.intBitsToFloat(readInt());
+		}
+
+		long readVarint() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				final int b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("corrupt touch trace, varint");
+		}
+	}
+}
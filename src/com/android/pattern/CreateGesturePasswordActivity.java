@@ -17,6 +17,7 @@ import com.android.lockpattern.widget.LockPatternUtils;
 import com.android.lockpattern.widget.LockPatternView;
 import com.android.lockpattern.widget.LockPatternView.Cell;
 import com.android.lockpattern.widget.LockPatternView.DisplayMode;
+import com.android.lockpattern.widget.Pattern;
 
 public class CreateGesturePasswordActivity extends Activity {
 	static final String TAG = "CreateGesturePassword";
@@ -28,7 +29,7 @@ public class CreateGesturePasswordActivity extends Activity {
 	private LockPatternView mLockPatternView;
 	protected TextView mHeaderText;
 	
-	protected List<LockPatternView.Cell> mChosenPattern = null;
+	protected Pattern mChosenPattern = null;
 	private Toast mToast;
 	private Stage mUiStage = Stage.Introduction;
 	
@@ -200,6 +201,7 @@ public class CreateGesturePasswordActivity extends Activity {
 		mLockPatternView = (LockPatternView) findViewById(R.id.gesturepwd_create_lockview);
 		mHeaderText = (TextView) findViewById(R.id.gesturepwd_create_text);
 		mLockPatternView.setOnPatternListener(mChooseNewLockPatternListener);
+		mLockPatternView.setOnPatternDeltaListener(mPreviewListener);
 		mLockPatternView.setTactileFeedbackEnabled(true);
 		
 		mPreviewViews = (LockPatternSmallView) findViewById(R.id.gesturepwd_pattern_preview);
@@ -211,7 +213,9 @@ public class CreateGesturePasswordActivity extends Activity {
 			// restore from previous state
 			final String patternString = savedInstanceState.getString(KEY_PATTERN_CHOICE);
 			if (patternString != null) {
-				mChosenPattern = LockPatternUtils.stringToPattern(patternString);
+				mChosenPattern = Pattern.of(
+						LockPatternUtils.stringToPattern(patternString),
+						LockPatternUtils.getRowOrColCount());
 			}
 			updateStage(Stage.values()[savedInstanceState.getInt(KEY_UI_STAGE)]);
 		}
@@ -225,11 +229,11 @@ public class CreateGesturePasswordActivity extends Activity {
 		mPreviewViews.setPattern(mChosenPattern);
 	}
 	
-	private void updatePreviewViews(List<Cell> pattern) {
-		if ((pattern == null) || (mUiStage != Stage.Introduction)) {
+	private void updatePreviewViews(int index, Cell cell) {
+		if (mUiStage != Stage.Introduction) {
 			return;
 		}
-		mPreviewViews.setPattern(pattern);
+		mPreviewViews.addCell(index, cell);
 	}
 
 	@Override
@@ -275,7 +279,6 @@ public class CreateGesturePasswordActivity extends Activity {
 	private Runnable mSaveAndFinishPatternRunnable = new Runnable() {
 		public void run() {
 			if (!isFinishing()) {
-				mLockPatternView.setEnabled(true);
 				saveChosenPatternAndFinish();
 			}
 		}
@@ -292,6 +295,16 @@ public class CreateGesturePasswordActivity extends Activity {
 		}
 	};
 
+	/**
+	 * Mirrors the pattern being drawn in the preview one cell at a time.
+	 */
+	private LockPatternView.OnPatternDeltaListener mPreviewListener = new LockPatternView.OnPatternDeltaListener() {
+
+		public void onPatternCellAdded(int index, Cell cell) {
+			updatePreviewViews(index, cell);
+		}
+	};
+
 	protected LockPatternView.OnPatternListener mChooseNewLockPatternListener = new LockPatternView.OnPatternListener() {
 
 		public void onPatternStart() {
@@ -303,8 +316,11 @@ public class CreateGesturePasswordActivity extends Activity {
 			mLockPatternView.removeCallbacks(mClearPatternRunnable);
 		}
 
-		public void onPatternDetected(List<LockPatternView.Cell> pattern) {
-			if (pattern == null) return;
+		public void onPatternDetected(List<LockPatternView.Cell> cells) {
+			if (cells == null) return;
+			// one copy per attempt, compared by hash first
+			final Pattern pattern = Pattern.of(cells,
+					LockPatternUtils.getRowOrColCount());
 			
 			if (mUiStage == Stage.NeedToConfirm
 					|| mUiStage == Stage.ConfirmWrong) {
@@ -322,7 +338,7 @@ public class CreateGesturePasswordActivity extends Activity {
 				if (pattern.size() < LockPatternUtils.MIN_LOCK_PATTERN_SIZE) {
 					updateStage(Stage.ChoiceTooShort);
 				} else {
-					mChosenPattern = new ArrayList<LockPatternView.Cell>(pattern);
+					mChosenPattern = pattern;
 					updateStage(Stage.FirstChoiceValid);
 					
 					mLockPatternView.setEnabled(false);
@@ -335,7 +351,6 @@ public class CreateGesturePasswordActivity extends Activity {
 		}
 
 		public void onPatternCellAdded(List<Cell> pattern) {
-			updatePreviewViews(pattern);
 		}
 
 		private void patternInProgress() {
@@ -394,10 +409,24 @@ public class CreateGesturePasswordActivity extends Activity {
 		mLockPatternView.postDelayed(mClearPatternRunnable, 1000);
 	}
 
+	// 保存要派生密钥，在后台线程进行，完成前保持禁止输入
 	private void saveChosenPatternAndFinish() {
-		App.getInstance().getLockPatternUtils().saveLockPattern(mChosenPattern);
-		showToast("密码设置成功");
-		startActivity(new Intent(this,UnlockGesturePasswordActivity.class));
-		finish();
+		App.getInstance().getLockPatternUtils().saveLockPatternAsync(
+				mChosenPattern, new LockPatternUtils.OnSavePatternListener() {
+					public void onPatternSaved(boolean saved) {
+						if (isFinishing())
+							return;
+						mLockPatternView.setEnabled(true);
+						if (!saved) {
+							showToast("密码保存失败");
+							return;
+						}
+						showToast("密码设置成功");
+						startActivity(new Intent(
+								CreateGesturePasswordActivity.this,
+								UnlockGesturePasswordActivity.class));
+						finish();
+					}
+				});
 	}
 }
@@ -1,9 +1,8 @@
 package com.android.pattern;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -17,6 +16,11 @@ import android.content.SharedPreferences.Editor;
 import android.os.FileObserver;
 import android.util.Log;
 
+import com.android.lockpattern.widget.AtomicKeyFile;
+import com.android.lockpattern.widget.CredentialRecord;
+import com.android.lockpattern.widget.KeyDerivation;
+import com.android.lockpattern.widget.LockPatternUtils;
+
 public class LockPasswordUtils {
 	private static final String TAG = "LockPasswordUtils";
 	private final static String LOCK_PASSWORD_SALT_FILE = "password_salt";
@@ -26,8 +30,10 @@ public class LockPasswordUtils {
 	private SharedPreferences mSharedPreferences;
 	private Editor mEditor;
 	private static File sLockPasswordFilename;
+	private static AtomicKeyFile sLockPasswordFile;
 	private static final AtomicBoolean sHaveNonZeroPasswordFile = new AtomicBoolean(false);
 	private static FileObserver sPasswordObserver;
+	private static int sCalibratedCost;
 
 	private static class PasswordFileObserver extends FileObserver {
 		public PasswordFileObserver(String path, int mask) {
@@ -52,6 +58,8 @@ public class LockPasswordUtils {
 					.getAbsolutePath();
 			sLockPasswordFilename = new File(dataSystemDirectory,
 					LOCK_PASSWORD_FILE);
+			sLockPasswordFile = new AtomicKeyFile(sLockPasswordFilename);
+			sLockPasswordFile.discardUncommitted();
 			sHaveNonZeroPasswordFile.set(sLockPasswordFilename.length() > 0);
 			int fileObserverMask = FileObserver.CLOSE_WRITE
 					| FileObserver.DELETE | FileObserver.MOVED_TO
@@ -113,28 +121,15 @@ public class LockPasswordUtils {
 	 */
 	public void saveLockPassword(String password, int quality,
 			boolean isFallback) {
-		// Compute the hash
-		final byte[] hash = passwordToHash(password);
 		try {
-			// Write the hash to file
-			RandomAccessFile raf = new RandomAccessFile(sLockPasswordFilename,
-					"rwd");
-			// Truncate the file if pattern is null, to clear the lo
-			try {
-				if (password == null) {
-					raf.setLength(0);
-				} else {
-					raf.write(hash, 0, hash.length);
-				}
-			} finally {
-				if (raf != null)
-					raf.close();
+			if (password == null) {
+				// Delete the file to clear the lock
+				sLockPasswordFile.delete();
+			} else {
+				// Write the record to a new file and swap it in
+				final byte[] data = createRecord(password).toByteArray();
+				sLockPasswordFile.write(data, 0, data.length);
 			}
-		} catch (FileNotFoundException fnfe) {
-			// Cant do much, unless we want to fail over to using the settings
-			// provider
-			Log.e(TAG, "Unable to save lock pattern to "
-					+ sLockPasswordFilename);
 		} catch (IOException ioe) {
 			// Cant do much
 			Log.e(TAG, "Unable to save lock pattern to "
@@ -144,37 +139,107 @@ public class LockPasswordUtils {
 
 	/**
 	 * Check to see if a password matches the saved password. If no password
-	 * exists, always returns true.
+	 * exists, always returns true. A password file that can't be read or
+	 * parsed matches nothing.
 	 * 
 	 * @param password
 	 *            The password to check.
 	 * @return Whether the password matches the stored one.
 	 */
 	public boolean checkPassword(String password) {
+		final byte[] stored;
 		try {
-			// Read all the bytes from the file
-			RandomAccessFile raf = new RandomAccessFile(sLockPasswordFilename,
-					"r");
-			final byte[] stored = new byte[(int) raf.length()];
-			int got = raf.read(stored, 0, stored.length);
-			raf.close();
-			if (got <= 0) {
-				return true;
-			}
-			// Compare the hash from the file with the entered password's hash
-			return Arrays.equals(stored, passwordToHash(password));
-		} catch (FileNotFoundException fnfe) {
-			return true;
+			stored = sLockPasswordFile.readFully();
 		} catch (IOException ioe) {
-			return true;
+			Log.e(TAG, "Unable to read lock password from "
+					+ sLockPasswordFilename);
+			return false;
+		}
+		if (stored.length == 0) {
+			// only a missing file means there is no password
+			return !sLockPasswordFilename.exists();
+		}
+		if (password == null) {
+			return false;
+		}
+		if (!CredentialRecord.hasHeader(stored, 0, stored.length)) {
+			// A bare hash from before the record format, upgraded on a match
+			final boolean matched = constantTimeEquals(stored,
+					passwordToHash(password));
+			if (matched) {
+				Log.d(TAG, "Upgrading lock password file");
+				saveLockPassword(password, 0, false);
+			}
+			return matched;
+		}
+		final CredentialRecord record = CredentialRecord.parse(stored, 0,
+				stored.length);
+		if (record == null) {
+			Log.e(TAG, "Corrupt lock password file " + sLockPasswordFilename);
+			return false;
+		}
+		final byte[] input = toBytes(password);
+		try {
+			return record.verify(input, input.length);
+		} finally {
+			Arrays.fill(input, (byte) 0);
+		}
+	}
+
+	/**
+	 * Derive a new record for a password, with a fresh salt.
+	 */
+	private static CredentialRecord createRecord(String password) {
+		final KeyDerivation kdf = KeyDerivation.PBKDF2_HMAC_SHA256;
+		final int cost = getCalibratedCost(kdf);
+		final byte[] salt = new byte[KeyDerivation.SALT_LENGTH];
+		new SecureRandom().nextBytes(salt);
+		final byte[] input = toBytes(password);
+		try {
+			final byte[] hash = new byte[kdf.getHashLength()];
+			kdf.derive(input, input.length, salt, cost, hash, 0);
+			return CredentialRecord.create(CredentialRecord.GRID_SIZE_PASSWORD,
+					kdf, cost, salt, hash);
+		} finally {
+			Arrays.fill(input, (byte) 0);
+		}
+	}
+
+	/**
+	 * @return The cost for new passwords, benchmarked once per process.
+	 */
+	private static synchronized int getCalibratedCost(KeyDerivation kdf) {
+		if (sCalibratedCost == 0) {
+			sCalibratedCost = kdf
+					.calibrate(LockPatternUtils.DEFAULT_VERIFY_MILLIS);
+			Log.v(TAG, "Calibrated password cost " + sCalibratedCost);
+		}
+		return sCalibratedCost;
+	}
+
+	private static byte[] toBytes(String password) {
+		try {
+			return password.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// every Java platform supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean constantTimeEquals(byte[] a, byte[] b) {
+		if (a == null || b == null || a.length != b.length) {
+			return false;
+		}
+		int diff = 0;
+		for (int i = 0; i < a.length; i++) {
+			diff |= a[i] ^ b[i];
 		}
+		return diff == 0;
 	}
 
 	/*
-	 * Generate a hash for the given password. To avoid brute force attacks, we
-	 * use a salted hash. Not the most secure, but it is at least a second level
-	 * of protection. First level is that the file is in a location only
-	 * readable by the system process.
+	 * Generate the hash passwords were stored as before the record format.
+	 * Only used to verify, and then upgrade, those files.
 	 * 
 	 * @param password the gesture pattern.
 	 * 
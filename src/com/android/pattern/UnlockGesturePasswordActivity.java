@@ -89,41 +89,18 @@ public class UnlockGesturePasswordActivity extends Activity {
 		public void onPatternDetected(List<LockPatternView.Cell> pattern) {
 			if (pattern == null)
 				return;
-			if (App.getInstance().getLockPatternUtils().checkPattern(pattern)) {
-				mLockPatternView
-						.setDisplayMode(LockPatternView.DisplayMode.Correct);
-				Intent intent = new Intent(UnlockGesturePasswordActivity.this,
-						GuideGesturePasswordActivity.class);
-				// 打开新的Activity
-				startActivity(intent);
-				showToast("解锁成功");
-				finish();
-			} else {
-				mLockPatternView
-						.setDisplayMode(LockPatternView.DisplayMode.Wrong);
-				if (pattern.size() >= LockPatternUtils.MIN_PATTERN_REGISTER_FAIL) {
-					mFailedPatternAttemptsSinceLastTimeout++;
-					int retry = LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT
-							- mFailedPatternAttemptsSinceLastTimeout;
-					if (retry >= 0) {
-						if (retry == 0) {
-							showToast("您已5次输错密码，请30秒后再试");
+			final int patternSize = pattern.size();
+			// 校验在后台线程进行，结果返回前禁止输入
+			mLockPatternView.disableInput();
+			App.getInstance().getLockPatternUtils().checkPatternAsync(pattern,
+					new LockPatternUtils.OnCheckPatternListener() {
+						public void onPatternChecked(boolean matched) {
+							if (isFinishing())
+								return;
+							mLockPatternView.enableInput();
+							onPatternVerified(matched, patternSize);
 						}
-						mHeadTextView.setText("密码错误，还可以再输入" + retry + "次");
-						mHeadTextView.setTextColor(Color.RED);
-						mHeadTextView.startAnimation(mShakeAnim);
-					}
-
-				}else{
-					showToast("输入长度不够，请重试");
-				}
-
-				if (mFailedPatternAttemptsSinceLastTimeout >= LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT) {
-					mHandler.postDelayed(attemptLockout, 2000);
-				} else {
-					mLockPatternView.postDelayed(mClearPatternRunnable, 2000);
-				}
-			}
+					});
 		}
 
 		public void onPatternCellAdded(List<Cell> pattern) {
@@ -133,6 +110,45 @@ public class UnlockGesturePasswordActivity extends Activity {
 		private void patternInProgress() {
 		}
 	};
+
+	private void onPatternVerified(boolean matched, int patternSize) {
+		if (matched) {
+			mLockPatternView
+					.setDisplayMode(LockPatternView.DisplayMode.Correct);
+			Intent intent = new Intent(UnlockGesturePasswordActivity.this,
+					GuideGesturePasswordActivity.class);
+			// 打开新的Activity
+			startActivity(intent);
+			showToast("解锁成功");
+			finish();
+		} else {
+			mLockPatternView
+					.setDisplayMode(LockPatternView.DisplayMode.Wrong);
+			if (patternSize >= LockPatternUtils.MIN_PATTERN_REGISTER_FAIL) {
+				mFailedPatternAttemptsSinceLastTimeout++;
+				int retry = LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT
+						- mFailedPatternAttemptsSinceLastTimeout;
+				if (retry >= 0) {
+					if (retry == 0) {
+						showToast("您已5次输错密码，请30秒后再试");
+					}
+					mHeadTextView.setText("密码错误，还可以再输入" + retry + "次");
+					mHeadTextView.setTextColor(Color.RED);
+					mHeadTextView.startAnimation(mShakeAnim);
+				}
+
+			}else{
+				showToast("输入长度不够，请重试");
+			}
+
+			if (mFailedPatternAttemptsSinceLastTimeout >= LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT) {
+				mHandler.postDelayed(attemptLockout, 2000);
+			} else {
+				mLockPatternView.postDelayed(mClearPatternRunnable, 2000);
+			}
+		}
+	}
+
 	Runnable attemptLockout = new Runnable() {
 		@Override
 		public void run() {